@@ -0,0 +1,128 @@
+package miniJava.Benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import miniJava.ErrorReporter;
+import miniJava.AbstractSyntaxTrees.AST;
+import miniJava.AbstractSyntaxTrees.ASTCache;
+import miniJava.AbstractSyntaxTrees.ASTDisplay;
+import miniJava.AbstractSyntaxTrees.ASTReader;
+import miniJava.AbstractSyntaxTrees.ASTWriter;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.SyntacticAnalyzer.Parser;
+import miniJava.SyntacticAnalyzer.Scanner;
+
+// Compares parsing a synthetic program with loading its tree from the AST cache.
+//  Fails if the loaded tree does not display exactly like the parsed one, for the synthetic
+//  program and for ALL_NODES, which has every kind of node the generator leaves out.
+// Usage: AstCacheBenchmark [classes methods statements [warmup rounds]]
+public class AstCacheBenchmark {
+	private static final String ALL_NODES = String.join("\n",
+			"class Main {",
+			"  public static void main(String[] args) {",
+			"    Node n = new Node();",
+			"    n.next = null;",
+			"    Node[] nodes = new Node[3];",
+			"    nodes[0] = n;",
+			"    int[] a = new int[2 * 4];",
+			"    a[1] = -a[0] + n.value;",
+			"    boolean b = !true || false && a[1] >= 0;",
+			"    if (b) System.out.println(n.get(a[1], b)); else { n.value = n.get(1, false); }",
+			"    while (n != null) n = n.next;",
+			"    n.set(Main.count);",
+			"    return;",
+			"  }",
+			"  private static int count;",
+			"}",
+			"class Node {",
+			"  public Node next;",
+			"  int value;",
+			"  int get(int i, boolean flag) {",
+			"    if (flag) return this.value;",
+			"    return i / 2 * (i - 1) - 3;",
+			"  }",
+			"  void set(int v) { value = v; this.next.value = v; }",
+			"}",
+			"");
+	
+	public static void main(String[] args) throws IOException {
+		int classes = args.length > 2 ? Integer.parseInt(args[0]) : 50;
+		int methods = args.length > 2 ? Integer.parseInt(args[1]) : 20;
+		int statements = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int warmup = args.length > 4 ? Integer.parseInt(args[3]) : 5;
+		int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+		
+		byte[] source = new ProgramGenerator(classes, methods, statements).generate().getBytes(StandardCharsets.US_ASCII);
+		Harness harness = new Harness(warmup, rounds);
+		Path dir = Files.createTempDirectory("minijava-astcache");
+		
+		ASTCache cache = new ASTCache(dir);
+		checkRoundTrip(cache, ALL_NODES.getBytes(StandardCharsets.US_ASCII));
+		checkRoundTrip(cache, source);
+		Package parsed = parse(source);
+		byte[] tree = ASTWriter.write(parsed);
+		
+		Harness.Result parse = harness.time(() -> parse(source));
+		Harness.Result write = harness.time(() -> ASTWriter.write(parsed));
+		Harness.Result read = harness.time(() -> ASTReader.read(ByteBuffer.wrap(tree)));
+		Harness.Result load = harness.time(() -> cache.load(source));
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+		
+		System.out.printf("program: %d classes x %d methods x %d statements, %d bytes, tree %d bytes%n",
+				classes, methods, statements, source.length, tree.length);
+		System.out.printf("%-16s %10s %10s%n", "step", "best ms", "mean ms");
+		report("parse", parse);
+		report("write", write);
+		report("read", read);
+		report("cache load", load);
+		System.out.printf("cache load is %.1fx faster than parsing%n", (double) parse.bestNanos / load.bestNanos);
+	}
+	
+	private static Package parse(byte[] source) {
+		ErrorReporter reporter = new ErrorReporter();
+		return new Parser(new Scanner(ByteBuffer.wrap(source), reporter), reporter).parseProgram();
+	}
+	
+	// writes the tree of source, directly and through cache, and reads it back both ways
+	private static void checkRoundTrip(ASTCache cache, byte[] source) throws IOException {
+		ErrorReporter reporter = new ErrorReporter();
+		Package parsed = new Parser(new Scanner(ByteBuffer.wrap(source), reporter), reporter).parseProgram();
+		if (parsed == null || reporter.hasErrors())
+			throw new IllegalStateException("Benchmark program does not parse");
+		cache.store(source, parsed);
+		String expected = display(parsed);
+		if (!expected.equals(display(ASTReader.read(ByteBuffer.wrap(ASTWriter.write(parsed)))))
+				|| !expected.equals(display(cache.load(source))))
+			throw new IllegalStateException("Tree read back from the cache differs from the parsed tree");
+	}
+	
+	// ASTDisplay only prints to System.out
+	private static String display(AST ast) {
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		boolean showPosition = ASTDisplay.showPosition;
+		ASTDisplay.showPosition = true;
+		System.setOut(new PrintStream(text));
+		try {
+			new ASTDisplay().showTree(ast);
+		} finally {
+			System.setOut(stdout);
+			ASTDisplay.showPosition = showPosition;
+		}
+		return text.toString();
+	}
+	
+	private static void report(String step, Harness.Result r) {
+		System.out.printf("%-16s %10.3f %10.3f%n", step, r.bestNanos / 1e6, r.meanNanos / 1e6);
+	}
+}
@@ -0,0 +1,69 @@
+package miniJava.Benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import miniJava.ErrorReporter;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.CodeGeneration.ConstantFolding;
+import miniJava.ContextualAnalysis.Identification;
+import miniJava.ContextualAnalysis.TypeChecking;
+import miniJava.IR.ClassLayout;
+import miniJava.SyntacticAnalyzer.Parser;
+import miniJava.SyntacticAnalyzer.Scanner;
+
+// Times code generation plus writing the ELF for a program with a long main, and reports
+//  the bytes allocated per round, which is where instruction encoding shows up.
+// Usage: CodegenBenchmark [statements [warmup rounds]]
+public class CodegenBenchmark {
+	public static void main(String[] args) throws IOException {
+		int statements = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int warmup = args.length > 2 ? Integer.parseInt(args[1]) : 10;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		
+		byte[] source = new ProgramGenerator(1, 1, statements).generate().getBytes(StandardCharsets.US_ASCII);
+		ErrorReporter reporter = new ErrorReporter();
+		Package prog = new Parser(new Scanner(ByteBuffer.wrap(source), reporter), reporter).parseProgram();
+		new Identification(reporter).parse(prog);
+		new TypeChecking(reporter).parse(prog);
+		if (reporter.hasErrors()) {
+			reporter.outputErrors();
+			throw new IllegalStateException("Generated program does not compile");
+		}
+		new ConstantFolding().fold(prog);
+		Map<ClassDecl, ClassLayout> layouts = ClassLayout.of(prog);
+		
+		Harness harness = new Harness(warmup, rounds);
+		Path elfFile = Files.createTempFile("minijava-bench", ".out");
+		Runnable codegen = () -> {
+			CodeGenerator generator = new CodeGenerator(new ErrorReporter());
+			generator.generate(prog, layouts);
+			generator.makeElf(elfFile.toString());
+		};
+		
+		// the instruction listing goes to stdout, keep it out of the timings
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Harness.Result result = harness.time(codegen);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		codegen.run();
+		long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+		System.setOut(stdout);
+		long codeSize = Files.size(elfFile);
+		Files.deleteIfExists(elfFile);
+		
+		System.out.printf("main: %d statements, ELF %d bytes%n", statements, codeSize);
+		System.out.printf("codegen+elf best %.3f ms, mean %.3f ms, %.1f KB allocated per round%n",
+				result.bestNanos / 1e6, result.meanNanos / 1e6, allocated / 1024.0);
+	}
+}
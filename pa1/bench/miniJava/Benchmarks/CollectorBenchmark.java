@@ -0,0 +1,189 @@
+package miniJava.Benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import miniJava.ErrorReporter;
+import miniJava.CodeGeneration.ELFMaker;
+import miniJava.CodeGeneration.HeapAllocator;
+import miniJava.CodeGeneration.IRLowering;
+import miniJava.CodeGeneration.OutputBuffer;
+import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.Peephole;
+import miniJava.IR.BasicBlock;
+import miniJava.IR.ClassLayout;
+import miniJava.IR.IRFunction;
+import miniJava.IR.Opcode;
+
+// Times a binary that keeps the collector busy, and fails unless every reference it holds
+//  survives. The IR is built by hand so the roots are of every kind the collector knows: a
+//  chain of objects more than fit the registers, so some of them are spilled, linked through
+//  their fields, with the last one also in a frame slot and a static field. The loop then
+//  allocates small objects and arrays through the nursery, and large arrays that go straight
+//  to the tenured space and force major collections. Afterwards each object must still hold
+//  its number and point at the one before it, and every copy of the last one must agree.
+// Usage: CollectorBenchmark [iterations [warmup rounds]]
+public class CollectorBenchmark {
+	private static final int CHAIN = 16;
+	private static final int SMALL_ARRAY = 10000; // words, nursery
+	private static final int LARGE_ARRAY = 160000; // words, tenured
+	private static final int NEXT = ClassLayout.HEADER; // reference fields come first
+	private static final int VALUE = ClassLayout.HEADER + 8;
+
+	public static void main(String[] args) throws IOException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int warmup = args.length > 2 ? Integer.parseInt(args[1]) : 1;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		InstructionList asm = new InstructionList();
+		OutputBuffer out = new OutputBuffer(asm);
+		HeapAllocator heap = new HeapAllocator(asm, out);
+		int statics = asm.allocateData(16);
+		heap.setStaticRoots(statics, 2); // the first stays 0
+		new IRLowering(asm, heap, out).lower(build(iterations, statics + 8));
+		out.exit(0);
+		heap.emitRuntime();
+		out.emitRuntime();
+		new Peephole().optimize(asm);
+		asm.relaxBranches();
+
+		Path elfFile = Files.createTempFile("minijava-bench", ".out");
+		new ELFMaker(new ErrorReporter(), asm.getSize(), asm.getDataSize()).outputELF(elfFile.toString(), asm.getBytes(), 0);
+		elfFile.toFile().setExecutable(true);
+
+		byte[] expected = expectedOutput();
+		byte[] actual = run(elfFile);
+		if (!Arrays.equals(expected, actual)) {
+			Files.deleteIfExists(elfFile);
+			throw new IllegalStateException("Binary printed \"" + new String(actual, StandardCharsets.US_ASCII)
+					+ "\", expected \"" + new String(expected, StandardCharsets.US_ASCII) + "\"");
+		}
+
+		Harness.Result result = new Harness(warmup, rounds).time(() -> run(elfFile));
+		Files.deleteIfExists(elfFile);
+
+		long allocated = 8L * iterations * (4 + SMALL_ARRAY + 2 + LARGE_ARRAY + 2);
+		System.out.printf("collector: %d iterations, %d MB allocated%n", iterations, allocated >> 20);
+		System.out.printf("run best %.3f ms, mean %.3f ms%n", result.bestNanos / 1e6, result.meanNanos / 1e6);
+	}
+
+	private static IRFunction build(int iterations, int staticField) {
+		IRFunction f = new IRFunction("main");
+		BasicBlock entry = f.newBlock();
+		BasicBlock head = f.newBlock();
+		BasicBlock body = f.newBlock();
+		BasicBlock exit = f.newBlock();
+		f.place(entry);
+		f.place(head);
+		f.place(body);
+		f.place(exit);
+		int counter = f.newSlot(false);
+		int frameCopy = f.newSlot(true);
+
+		int[] chain = new int[CHAIN];
+		for (int k = 0; k < CHAIN; ++k) {
+			chain[k] = reference(f);
+			entry.add(Opcode.NEW, chain[k], 2, 1);
+			int value = f.newVReg();
+			entry.add(Opcode.CONST, value, 1000 + k, -1);
+			entry.add(Opcode.PUTFIELD, VALUE, chain[k], value);
+			if (k > 0)
+				entry.add(Opcode.PUTFIELD, NEXT, chain[k], chain[k - 1]);
+		}
+		int last = chain[CHAIN - 1];
+		entry.add(Opcode.PUTSTATIC, -1, last, staticField);
+		entry.add(Opcode.STORE, -1, last, frameCopy);
+		int zero = f.newVReg();
+		entry.add(Opcode.CONST, zero, 0, -1);
+		entry.add(Opcode.STORE, -1, zero, counter);
+		entry.jump(head);
+
+		int i = f.newVReg();
+		int limit = f.newVReg();
+		head.add(Opcode.LOAD, i, counter, -1);
+		head.add(Opcode.CONST, limit, iterations, -1);
+		head.branch(Opcode.LT, i, limit, body, exit);
+
+		body.add(Opcode.NEW, reference(f), 3, 2);
+		int small = f.newVReg();
+		body.add(Opcode.CONST, small, SMALL_ARRAY, -1);
+		body.add(Opcode.NEWARRAY, reference(f), small, 0);
+		int large = f.newVReg();
+		body.add(Opcode.CONST, large, LARGE_ARRAY, -1);
+		body.add(Opcode.NEWARRAY, reference(f), large, 0);
+		int before = f.newVReg();
+		int one = f.newVReg();
+		int after = f.newVReg();
+		body.add(Opcode.LOAD, before, counter, -1);
+		body.add(Opcode.CONST, one, 1, -1);
+		body.add(Opcode.ADD, after, before, one);
+		body.add(Opcode.STORE, -1, after, counter);
+		body.jump(head);
+
+		for (int k = 0; k < CHAIN; ++k) {
+			int value = f.newVReg();
+			exit.add(Opcode.GETFIELD, value, chain[k], VALUE);
+			exit.add(Opcode.PRINT, -1, value, -1);
+			if (k > 0) {
+				int next = reference(f);
+				exit.add(Opcode.GETFIELD, next, chain[k], NEXT);
+				print(f, exit, next, chain[k - 1]);
+			}
+		}
+		int fromStatic = reference(f);
+		exit.add(Opcode.GETSTATIC, fromStatic, staticField, -1);
+		print(f, exit, fromStatic, last);
+		int fromFrame = reference(f);
+		exit.add(Opcode.LOAD, fromFrame, frameCopy, -1);
+		print(f, exit, fromFrame, last);
+		exit.ret();
+		return f;
+	}
+
+	private static int reference(IRFunction f) {
+		int v = f.newVReg();
+		f.markReference(v);
+		return v;
+	}
+
+	// println(a == b)
+	private static void print(IRFunction f, BasicBlock b, int a, int c) {
+		int same = f.newVReg();
+		b.add(Opcode.EQ, same, a, c);
+		b.add(Opcode.PRINT, -1, same, -1);
+	}
+
+	private static byte[] expectedOutput() {
+		StringBuilder out = new StringBuilder();
+		for (int k = 0; k < CHAIN; ++k) {
+			out.append(1000 + k).append('\n');
+			if (k > 0)
+				out.append("1\n");
+		}
+		out.append("1\n1\n");
+		return out.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] run(Path elfFile) {
+		try {
+			Process p = new ProcessBuilder(elfFile.toString()).redirectErrorStream(true).start();
+			byte[] out;
+			try (InputStream in = p.getInputStream()) {
+				out = in.readAllBytes();
+			}
+			if (p.waitFor() != 0)
+				throw new IllegalStateException("Binary exited with " + p.exitValue());
+			return out;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package miniJava.Benchmarks;
+
+// Minimal timing loop shared by the benchmarks: run a body a few times to
+//  let the JIT settle, then keep the best and mean of the measured rounds.
+public class Harness {
+	private int _warmupRounds;
+	private int _measuredRounds;
+	
+	public Harness(int warmupRounds, int measuredRounds) {
+		this._warmupRounds = warmupRounds;
+		this._measuredRounds = measuredRounds;
+	}
+	
+	public Result time(Runnable body) {
+		for (int i = 0; i < _warmupRounds; ++i)
+			body.run();
+		
+		long best = Long.MAX_VALUE;
+		long total = 0;
+		for (int i = 0; i < _measuredRounds; ++i) {
+			long start = System.nanoTime();
+			body.run();
+			long elapsed = System.nanoTime() - start;
+			best = Math.min(best, elapsed);
+			total += elapsed;
+		}
+		return new Result(best, total / _measuredRounds);
+	}
+	
+	public static class Result {
+		public final long bestNanos;
+		public final long meanNanos;
+		
+		public Result(long bestNanos, long meanNanos) {
+			this.bestNanos = bestNanos;
+			this.meanNanos = meanNanos;
+		}
+		
+		// ops per second based on the best round
+		public double throughput(long ops) {
+			return ops * 1e9 / bestNanos;
+		}
+	}
+}
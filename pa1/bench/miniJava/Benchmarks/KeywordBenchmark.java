@@ -0,0 +1,102 @@
+package miniJava.Benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import miniJava.ErrorReporter;
+import miniJava.SyntacticAnalyzer.Keywords;
+import miniJava.SyntacticAnalyzer.Scanner;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+// Measures keyword classification on a keyword-heavy corpus.
+//  "switch" is the old classifier (build the spelling, switch on the String),
+//  "hash" is Keywords.lookup, "scan" is the whole Scanner in tokens/second.
+// Usage: KeywordBenchmark [corpus repetitions]
+public class KeywordBenchmark {
+	public static void main(String[] args) {
+		int reps = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		ByteBuffer corpus = makeCorpus(reps);
+		int[] starts = new int[corpus.limit()];
+		int[] lengths = new int[corpus.limit()];
+		int words = splitWords(corpus, starts, lengths);
+		
+		Harness harness = new Harness(5, 10);
+		
+		System.out.println("corpus: " + corpus.limit() + " bytes, " + words + " words");
+		report("switch", words, harness.time(() -> classifyBySwitch(corpus, starts, lengths, words)));
+		report("hash", words, harness.time(() -> classifyByHash(corpus, starts, lengths, words)));
+		int tokens = scanAll(corpus);
+		report("scan", tokens, harness.time(() -> scanAll(corpus)));
+	}
+	
+	private static ByteBuffer makeCorpus(int reps) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < reps; ++i) {
+			sb.append("class C").append(i).append(" { public static int f; private boolean b;\n");
+			sb.append(" public void m(int x) { if (this.b) return; else while (true) { x = new int[2]; } }\n");
+			sb.append(" private static boolean n() { if (false) return null; else return true; } }\n");
+		}
+		return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.US_ASCII));
+	}
+	
+	private static int splitWords(ByteBuffer buf, int[] starts, int[] lengths) {
+		int words = 0;
+		int i = 0;
+		while (i < buf.limit()) {
+			if (!Character.isLetter(buf.get(i))) {
+				++i;
+				continue;
+			}
+			int start = i;
+			while (i < buf.limit() && Character.isLetterOrDigit(buf.get(i)))
+				++i;
+			starts[words] = start;
+			lengths[words] = i - start;
+			++words;
+		}
+		return words;
+	}
+	
+	private static int classifyBySwitch(ByteBuffer buf, int[] starts, int[] lengths, int words) {
+		int keywords = 0;
+		StringBuilder sb = new StringBuilder();
+		for (int w = 0; w < words; ++w) {
+			sb.setLength(0);
+			for (int i = starts[w]; i < starts[w] + lengths[w]; ++i)
+				sb.append((char)buf.get(i));
+			switch (sb.toString()) {
+			case "class": case "public": case "private": case "static": case "void":
+			case "return": case "int": case "boolean": case "this": case "while":
+			case "if": case "else": case "new": case "null": case "true": case "false":
+				++keywords;
+				break;
+			default:
+				break;
+			}
+		}
+		return keywords;
+	}
+	
+	private static int classifyByHash(ByteBuffer buf, int[] starts, int[] lengths, int words) {
+		int keywords = 0;
+		for (int w = 0; w < words; ++w) {
+			if (Keywords.lookup(buf, starts[w], lengths[w]) != null)
+				++keywords;
+		}
+		return keywords;
+	}
+	
+	private static int scanAll(ByteBuffer buf) {
+		Scanner scanner = new Scanner(buf.duplicate(), new ErrorReporter());
+		int tokens = 0;
+		Token t;
+		while ((t = scanner.scan()) != null && t.getTokenType() != TokenType.EOT)
+			++tokens;
+		return tokens;
+	}
+	
+	private static void report(String name, int ops, Harness.Result r) {
+		System.out.printf("%-8s %12.0f ops/s  (%d ops in %.2f ms)%n", name, r.throughput(ops), ops, r.bestNanos / 1e6);
+	}
+}
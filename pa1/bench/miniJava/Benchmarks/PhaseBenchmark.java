@@ -0,0 +1,101 @@
+package miniJava.Benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import miniJava.ErrorReporter;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.CodeGeneration.ConstantFolding;
+import miniJava.ContextualAnalysis.Identification;
+import miniJava.ContextualAnalysis.TypeChecking;
+import miniJava.IR.ClassLayout;
+import miniJava.SyntacticAnalyzer.Parser;
+import miniJava.SyntacticAnalyzer.Scanner;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+// Times every compiler phase on its own over a synthetic program.
+// Usage: PhaseBenchmark [classes methods statements [warmup rounds]]
+public class PhaseBenchmark {
+	public static void main(String[] args) throws IOException {
+		int classes = args.length > 2 ? Integer.parseInt(args[0]) : 50;
+		int methods = args.length > 2 ? Integer.parseInt(args[1]) : 20;
+		int statements = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int warmup = args.length > 4 ? Integer.parseInt(args[3]) : 5;
+		int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+		
+		byte[] source = new ProgramGenerator(classes, methods, statements).generate().getBytes(StandardCharsets.US_ASCII);
+		Harness harness = new Harness(warmup, rounds);
+		Path elfFile = Files.createTempFile("minijava-bench", ".out");
+		PrintStream stdout = System.out;
+		
+		// every later phase works from one checked AST
+		ErrorReporter reporter = new ErrorReporter();
+		Package prog = parse(source, reporter);
+		new Identification(reporter).parse(prog);
+		new TypeChecking(reporter).parse(prog);
+		if (reporter.hasErrors()) {
+			reporter.outputErrors();
+			throw new IllegalStateException("Generated program does not compile");
+		}
+		
+		// code generation starts from a folded copy, the checks above keep timing the source as written
+		Package folded = parse(source, reporter);
+		new Identification(reporter).parse(folded);
+		new TypeChecking(reporter).parse(folded);
+		new ConstantFolding().fold(folded);
+		Map<ClassDecl, ClassLayout> layouts = ClassLayout.of(folded);
+		
+		// code generation dumps the instruction bytes to stdout, keep that out of the timings
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		CodeGenerator elfGenerator = new CodeGenerator(reporter);
+		elfGenerator.generate(folded, layouts);
+		
+		int tokens = scan(source);
+		Harness.Result scan = harness.time(() -> scan(source));
+		Harness.Result parse = harness.time(() -> parse(source, new ErrorReporter()));
+		Harness.Result identification = harness.time(() -> new Identification(new ErrorReporter()).parse(prog));
+		Harness.Result typeChecking = harness.time(() -> new TypeChecking(new ErrorReporter()).parse(prog));
+		Harness.Result codeGeneration = harness.time(() -> new CodeGenerator(new ErrorReporter()).generate(folded, layouts));
+		Harness.Result elf = harness.time(() -> elfGenerator.makeElf(elfFile.toString()));
+		System.setOut(stdout);
+		Files.deleteIfExists(elfFile);
+		
+		System.out.printf("program: %d classes x %d methods x %d statements, %d bytes, %d tokens%n",
+				classes, methods, statements, source.length, tokens);
+		System.out.printf("%-16s %10s %10s%n", "phase", "best ms", "mean ms");
+		report("scan", scan);
+		report("parse", parse);
+		report("identification", identification);
+		report("typecheck", typeChecking);
+		report("codegen", codeGeneration);
+		report("elf", elf);
+		System.out.printf("scan throughput: %.0f tokens/s%n", scan.throughput(tokens));
+	}
+	
+	private static int scan(byte[] source) {
+		Scanner scanner = new Scanner(ByteBuffer.wrap(source), new ErrorReporter());
+		int tokens = 0;
+		Token t;
+		while ((t = scanner.scan()) != null && t.getTokenType() != TokenType.EOT)
+			++tokens;
+		return tokens;
+	}
+	
+	private static Package parse(byte[] source, ErrorReporter reporter) {
+		Scanner scanner = new Scanner(ByteBuffer.wrap(source), reporter);
+		return new Parser(scanner, reporter).parseProgram();
+	}
+	
+	private static void report(String phase, Harness.Result r) {
+		System.out.printf("%-16s %10.3f %10.3f%n", phase, r.bestNanos / 1e6, r.meanNanos / 1e6);
+	}
+}
@@ -0,0 +1,76 @@
+package miniJava.Benchmarks;
+
+// Builds synthetic miniJava programs that make it through every phase.
+//  Each of the classes gets a few fields and the requested number of methods,
+//  each method holds the requested number of statements. The class holding
+//  main comes last, code generation only looks at main.
+public class ProgramGenerator {
+	private int _classes;
+	private int _methods;
+	private int _statements;
+	
+	public ProgramGenerator(int classes, int methods, int statements) {
+		this._classes = classes;
+		this._methods = methods;
+		this._statements = statements;
+	}
+	
+	public String generate() {
+		StringBuilder sb = new StringBuilder();
+		for (int c = 0; c < _classes; ++c) {
+			sb.append("class C").append(c).append(" {\n");
+			sb.append("\tpublic int count;\n");
+			sb.append("\tprivate boolean flag;\n");
+			sb.append("\tpublic static int shared;\n");
+			for (int m = 0; m < _methods; ++m)
+				method(sb, m);
+			sb.append("}\n\n");
+		}
+		
+		sb.append("class Main {\n");
+		sb.append("\tpublic static void main(String[] args) {\n");
+		sb.append("\t\tint x = 1;\n");
+		for (int s = 0; s < _statements; ++s)
+			mainStatement(sb, s);
+		sb.append("\t\tSystem.out.println(x);\n");
+		sb.append("\t}\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+	
+	private void method(StringBuilder sb, int m) {
+		sb.append("\tpublic int m").append(m).append("(int a, boolean c) {\n");
+		for (int s = 0; s < _statements; ++s) {
+			switch (s % 4) {
+			case 0:
+				sb.append("\t\tint v").append(s).append(" = a + ").append(s).append(" * 2 - 1;\n");
+				break;
+			case 1:
+				sb.append("\t\tboolean b").append(s).append(" = a > ").append(s).append(" && c || !c;\n");
+				break;
+			case 2:
+				sb.append("\t\tif (a < ").append(s).append(") { int t").append(s).append(" = a / 3; a = t").append(s).append("; } else a = a + 1;\n");
+				break;
+			default:
+				sb.append("\t\twhile (a >= ").append(s).append(") a = a - 7;\n");
+				break;
+			}
+		}
+		sb.append("\t\treturn a;\n");
+		sb.append("\t}\n");
+	}
+	
+	private void mainStatement(StringBuilder sb, int s) {
+		switch (s % 3) {
+		case 0:
+			sb.append("\t\tint v").append(s).append(" = ").append(s).append(" * 4 + 5;\n");
+			break;
+		case 1:
+			sb.append("\t\tx = x + ").append(s).append(";\n");
+			break;
+		default:
+			sb.append("\t\tif (").append(s).append(" > 10) { x = x - 1; } else { x = x + 2; }\n");
+			break;
+		}
+	}
+}
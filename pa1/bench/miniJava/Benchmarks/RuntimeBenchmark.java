@@ -0,0 +1,149 @@
+package miniJava.Benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import miniJava.ErrorReporter;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.CodeGeneration.ConstantFolding;
+import miniJava.ContextualAnalysis.Identification;
+import miniJava.ContextualAnalysis.TypeChecking;
+import miniJava.IR.ClassLayout;
+import miniJava.SyntacticAnalyzer.Parser;
+import miniJava.SyntacticAnalyzer.Scanner;
+
+// Times the generated binary rather than the compiler: main runs an arithmetic-heavy
+//  loop over a few locals, then prints them. The same loop is evaluated here with longs,
+//  which wrap and truncate like the 64-bit registers, and the printed bytes must match.
+// Usage: RuntimeBenchmark [iterations variables [warmup rounds]]
+public class RuntimeBenchmark {
+	public static void main(String[] args) throws IOException {
+		int iterations = args.length > 1 ? Integer.parseInt(args[0]) : 5000000;
+		int variables = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+		int warmup = args.length > 3 ? Integer.parseInt(args[2]) : 1;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		byte[] source = generate(iterations, variables).getBytes(StandardCharsets.US_ASCII);
+		ErrorReporter reporter = new ErrorReporter();
+		Package prog = new Parser(new Scanner(ByteBuffer.wrap(source), reporter), reporter).parseProgram();
+		new Identification(reporter).parse(prog);
+		new TypeChecking(reporter).parse(prog);
+		new ConstantFolding().fold(prog);
+		Map<ClassDecl, ClassLayout> layouts = ClassLayout.of(prog);
+
+		// code generation dumps the instruction bytes to stdout
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		CodeGenerator generator = new CodeGenerator(reporter);
+		generator.generate(prog, layouts);
+		System.setOut(stdout);
+		if (reporter.hasErrors()) {
+			reporter.outputErrors();
+			throw new IllegalStateException("Generated program does not compile");
+		}
+
+		Path elfFile = Files.createTempFile("minijava-bench", ".out");
+		generator.makeElf(elfFile.toString());
+		elfFile.toFile().setExecutable(true);
+
+		byte[] expected = expectedOutput(iterations, variables);
+		byte[] actual = run(elfFile);
+		if (!Arrays.equals(expected, actual)) {
+			Files.deleteIfExists(elfFile);
+			throw new IllegalStateException("Binary printed " + Arrays.toString(actual) + ", expected " + Arrays.toString(expected));
+		}
+
+		Harness.Result result = new Harness(warmup, rounds).time(() -> run(elfFile));
+		long elfSize = Files.size(elfFile);
+		Files.deleteIfExists(elfFile);
+
+		System.out.printf("loop: %d iterations over %d variables, ELF %d bytes%n", iterations, variables, elfSize);
+		System.out.println(generator.getPeephole());
+		System.out.printf("run best %.3f ms, mean %.3f ms, %.2f ns per iteration%n",
+				result.bestNanos / 1e6, result.meanNanos / 1e6, (double) result.bestNanos / iterations);
+	}
+
+	// multipliers, divisors and offsets per variable, all small and positive
+	private static int mul(int j) { return 3 + j % 5; }
+	private static int div(int j) { return 2 + j % 3; }
+	private static int off(int j) { return 1 + j % 4; }
+
+	private static String generate(int iterations, int variables) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("class Main {\n");
+		sb.append("\tpublic static void main(String[] args) {\n");
+		sb.append("\t\tint i = 0;\n");
+		sb.append("\t\tint acc = 0;\n");
+		for (int j = 0; j < variables; ++j)
+			sb.append("\t\tint v").append(j).append(" = ").append(j + 1).append(";\n");
+		sb.append("\t\twhile (i < ").append(iterations).append(") {\n");
+		for (int j = 0; j < variables; ++j) {
+			int next = (j + 1) % variables;
+			sb.append("\t\t\tv").append(j).append(" = v").append(j).append(" * ").append(mul(j))
+				.append(" + v").append(next).append(" / ").append(div(j))
+				.append(" - (i - v").append(j).append(") * ").append(off(j)).append(";\n");
+			sb.append("\t\t\tif (v").append(j).append(" > v").append(next).append(") acc = acc + 1; else acc = acc - v")
+				.append(j).append(" / ").append(div(j) + 1).append(";\n");
+		}
+		sb.append("\t\t\ti = i + 1;\n");
+		sb.append("\t\t}\n");
+		sb.append("\t\tSystem.out.println(acc);\n");
+		for (int j = 0; j < variables; ++j)
+			sb.append("\t\tSystem.out.println(v").append(j).append(");\n");
+		sb.append("\t}\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	// println writes the value in decimal and a newline
+	private static byte[] expectedOutput(int iterations, int variables) {
+		long acc = 0;
+		long[] v = new long[variables];
+		for (int j = 0; j < variables; ++j)
+			v[j] = j + 1;
+		for (long i = 0; i < iterations; ++i) {
+			for (int j = 0; j < variables; ++j) {
+				int next = (j + 1) % variables;
+				v[j] = v[j] * mul(j) + v[next] / div(j) - (i - v[j]) * off(j);
+				if (v[j] > v[next])
+					acc = acc + 1;
+				else
+					acc = acc - v[j] / (div(j) + 1);
+			}
+		}
+		StringBuilder out = new StringBuilder();
+		out.append(acc).append('\n');
+		for (int j = 0; j < variables; ++j)
+			out.append(v[j]).append('\n');
+		return out.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] run(Path elfFile) {
+		try {
+			Process p = new ProcessBuilder(elfFile.toString()).redirectErrorStream(true).start();
+			byte[] out;
+			try (InputStream in = p.getInputStream()) {
+				out = in.readAllBytes();
+			}
+			if (p.waitFor() != 0)
+				throw new IllegalStateException("Binary exited with " + p.exitValue());
+			return out;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
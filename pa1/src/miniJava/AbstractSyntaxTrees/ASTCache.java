@@ -0,0 +1,74 @@
+package miniJava.AbstractSyntaxTrees;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Directory of parsed trees, one file per source text, named after a hash of that text.
+ * Each file is the source length and hash followed by ASTWriter's output, the pair is
+ * checked again on load so a colliding name cannot hand back the wrong tree.
+ */
+public class ASTCache {
+	private Path _dir;
+
+	public ASTCache(Path dir) {
+		this._dir = dir;
+	}
+
+	// returns null if the source has not been stored or the entry cannot be read
+	public Package load(byte[] source) {
+		long hash = hash(source);
+		Path file = entry(source, hash);
+		if (!Files.isRegularFile(file))
+			return null;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.remaining() < 12 || buf.getInt() != source.length || buf.getLong() != hash)
+				return null;
+			return ASTReader.read(buf);
+		} catch (IOException | RuntimeException e) {
+			// a truncated or stale entry is a miss, parsing replaces it
+			return null;
+		}
+	}
+
+	public void store(byte[] source, Package prog) throws IOException {
+		long hash = hash(source);
+		byte[] tree = ASTWriter.write(prog);
+		ByteBuffer buf = ByteBuffer.allocate(12 + tree.length);
+		buf.putInt(source.length).putLong(hash).put(tree);
+
+		// written next to the entry and renamed, so a reader never maps half a file
+		Files.createDirectories(_dir);
+		Path tmp = Files.createTempFile(_dir, "ast", ".tmp");
+		Files.write(tmp, buf.array());
+		Files.move(tmp, entry(source, hash), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Path entry(byte[] source, long hash) {
+		return _dir.resolve(Long.toHexString(hash) + "-" + source.length + ".ast");
+	}
+
+	// 64-bit multiply-xor over eight bytes at a time
+	private static long hash(byte[] source) {
+		ByteBuffer buf = ByteBuffer.wrap(source).order(ByteOrder.LITTLE_ENDIAN);
+		long h = 0xcbf29ce484222325L ^ source.length;
+		while (buf.remaining() >= 8) {
+			h = (h ^ buf.getLong()) * 0x100000001b3L;
+			h ^= h >>> 29;
+		}
+		while (buf.hasRemaining()) {
+			h = (h ^ buf.get()) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		return h ^ (h >>> 33);
+	}
+}
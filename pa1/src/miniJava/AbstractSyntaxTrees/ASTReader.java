@@ -0,0 +1,226 @@
+package miniJava.AbstractSyntaxTrees;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import miniJava.SyntacticAnalyzer.SourcePosition;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+import static miniJava.AbstractSyntaxTrees.ASTWriter.*;
+
+/*
+ * Rebuilds an AST written by ASTWriter, see there for the layout. Reads straight from a
+ * ByteBuffer so a cached tree can be memory-mapped instead of copied in first.
+ */
+public class ASTReader {
+	private static final TokenType[] TOKEN_TYPES = TokenType.values();
+	private static final TypeKind[] TYPE_KINDS = TypeKind.values();
+
+	private ByteBuffer _in;
+	private String[] _strings;
+	private int _line = 0; // line of the last position read
+	private int _col = 0;
+
+	private ASTReader(ByteBuffer in) {
+		this._in = in;
+	}
+
+	// returns null if buf does not hold a tree of this version
+	public static Package read(ByteBuffer buf) {
+		ASTReader reader = new ASTReader(buf);
+		if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+			return null;
+		reader.readStrings();
+		AST ast = reader.node();
+		return ast instanceof Package ? (Package) ast : null;
+	}
+
+	private void readStrings() {
+		_strings = new String[readVarint()];
+		byte[] bytes = new byte[64];
+		for (int i = 0; i < _strings.length; ++i) {
+			int len = readVarint();
+			if (len > bytes.length)
+				bytes = new byte[len];
+			_in.get(bytes, 0, len);
+			_strings[i] = new String(bytes, 0, len, StandardCharsets.UTF_8);
+		}
+	}
+
+	private int readVarint() {
+		int v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = _in.get();
+			v |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return v;
+	}
+
+	private String readString() {
+		int idx = readVarint();
+		return idx == 0 ? null : _strings[idx - 1];
+	}
+
+	private boolean readBoolean() {
+		return _in.get() != 0;
+	}
+
+	// sets _line and _col, returns false when the node has no position
+	private boolean readPosition(int tag) {
+		if ((tag & HAS_POSITION) == 0)
+			return false;
+		int delta = readVarint();
+		_line += (delta >>> 1) ^ -(delta & 1);
+		_col = readVarint();
+		return true;
+	}
+
+	private Token readToken(boolean hasPosition) {
+		TokenType kind = TOKEN_TYPES[readVarint()];
+		String spelling = readString();
+		return hasPosition ? new Token(kind, spelling, _line, _col) : new Token(kind, spelling);
+	}
+
+	private FieldDecl readMember(SourcePosition posn) {
+		String name = readString();
+		boolean isPrivate = readBoolean();
+		boolean isStatic = readBoolean();
+		return new FieldDecl(isPrivate, isStatic, (TypeDenoter) node(), name, posn);
+	}
+
+	private ExprList readExprList() {
+		ExprList el = new ExprList();
+		for (int n = readVarint(); n > 0; --n)
+			el.add((Expression) node());
+		return el;
+	}
+
+	private TypeDenoter withClassn(TypeDenoter type) {
+		type.classn = readString();
+		return type;
+	}
+
+	private AST node() {
+		int b = _in.get() & 0xFF;
+		boolean hasPosition = readPosition(b);
+		byte tag = (byte) (b & ~HAS_POSITION);
+		// terminals keep their position in the token they are built from
+		switch (tag) {
+		case NULL:
+			return null;
+		case IDENTIFIER:
+			return new Identifier(readToken(hasPosition));
+		case OPERATOR:
+			return new Operator(readToken(hasPosition));
+		case INT_LITERAL:
+			return new IntLiteral(readToken(hasPosition));
+		case BOOLEAN_LITERAL:
+			return new BooleanLiteral(readToken(hasPosition));
+		case NULL_LITERAL:
+			return new NullLiteral(readToken(hasPosition));
+		}
+
+		SourcePosition posn = hasPosition ? new SourcePosition(_line, _col) : null;
+		switch (tag) {
+		case PACKAGE: {
+			ClassDeclList cdl = new ClassDeclList();
+			for (int n = readVarint(); n > 0; --n)
+				cdl.add((ClassDecl) node());
+			return new Package(cdl, posn);
+		}
+		case CLASS_DECL: {
+			String name = readString();
+			long contentHash = _in.getLong();
+			FieldDeclList fdl = new FieldDeclList();
+			for (int n = readVarint(); n > 0; --n)
+				fdl.add((FieldDecl) node());
+			MethodDeclList mdl = new MethodDeclList();
+			for (int n = readVarint(); n > 0; --n)
+				mdl.add((MethodDecl) node());
+			ClassDecl cd = new ClassDecl(name, fdl, mdl, posn);
+			cd.contentHash = contentHash;
+			return cd;
+		}
+		case FIELD_DECL: {
+			FieldDecl fd = readMember(posn);
+			fd.classn = readString();
+			return fd;
+		}
+		case METHOD_DECL: {
+			FieldDecl md = readMember(posn);
+			String classn = readString();
+			ParameterDeclList pdl = new ParameterDeclList();
+			for (int n = readVarint(); n > 0; --n)
+				pdl.add((ParameterDecl) node());
+			StatementList sl = new StatementList();
+			for (int n = readVarint(); n > 0; --n)
+				sl.add((Statement) node());
+			return new MethodDecl(md, pdl, sl, classn, posn);
+		}
+		case PARAMETER_DECL: {
+			String name = readString();
+			String classn = readString();
+			return new ParameterDecl((TypeDenoter) node(), name, classn, posn);
+		}
+		case VAR_DECL: {
+			String name = readString();
+			String classn = readString();
+			return new VarDecl((TypeDenoter) node(), name, classn, posn);
+		}
+		case BASE_TYPE:
+			return withClassn(new BaseType(TYPE_KINDS[readVarint()], posn));
+		case CLASS_TYPE:
+			return withClassn(new ClassType((Identifier) node(), posn));
+		case ARRAY_TYPE:
+			return withClassn(new ArrayType((TypeDenoter) node(), posn));
+		case BLOCK_STMT: {
+			StatementList sl = new StatementList();
+			for (int n = readVarint(); n > 0; --n)
+				sl.add((Statement) node());
+			return new BlockStmt(sl, posn);
+		}
+		case VARDECL_STMT:
+			return new VarDeclStmt((VarDecl) node(), (Expression) node(), posn);
+		case ASSIGN_STMT:
+			return new AssignStmt((Reference) node(), (Expression) node(), posn);
+		case IXASSIGN_STMT:
+			return new IxAssignStmt((Reference) node(), (Expression) node(), (Expression) node(), posn);
+		case CALL_STMT:
+			return new CallStmt((Reference) node(), readExprList(), posn);
+		case RETURN_STMT:
+			return new ReturnStmt((Expression) node(), posn);
+		case IF_STMT:
+			return new IfStmt((Expression) node(), (Statement) node(), (Statement) node(), posn);
+		case WHILE_STMT:
+			return new WhileStmt((Expression) node(), (Statement) node(), posn);
+		case UNARY_EXPR:
+			return new UnaryExpr((Operator) node(), (Expression) node(), posn);
+		case BINARY_EXPR:
+			return new BinaryExpr((Operator) node(), (Expression) node(), (Expression) node(), posn);
+		case REF_EXPR:
+			return new RefExpr((Reference) node(), posn);
+		case IX_EXPR:
+			return new IxExpr((Reference) node(), (Expression) node(), posn);
+		case CALL_EXPR:
+			return new CallExpr((Reference) node(), readExprList(), posn);
+		case LITERAL_EXPR:
+			return new LiteralExpr((Terminal) node(), posn);
+		case NEWOBJECT_EXPR:
+			return new NewObjectExpr((ClassType) node(), posn);
+		case NEWARRAY_EXPR:
+			return new NewArrayExpr((TypeDenoter) node(), (Expression) node(), posn);
+		case THIS_REF:
+			return new ThisRef(posn);
+		case ID_REF:
+			return new IdRef((Identifier) node(), posn);
+		case QUAL_REF:
+			return new QualRef((Reference) node(), (Identifier) node(), posn);
+		default:
+			throw new IllegalStateException("Bad AST tag " + tag + " at " + (_in.position() - 1));
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package miniJava.AbstractSyntaxTrees;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import miniJava.SyntacticAnalyzer.SourcePosition;
+
+/*
+ * Writes an AST in a compact binary form that ASTReader turns back into the same tree.
+ *
+ * Layout: magic, version, the string table (count, then length and UTF-8 bytes of each
+ * string), then the nodes in pre-order. Every node is a tag byte, its position and its
+ * fields, children follow their parent and lists are a count followed by the elements.
+ * Counts, string indices and columns are unsigned LEB128 varints; a string index of 0
+ * is null and index i is entry i-1 of the table. Only nodes with HAS_POSITION set in the
+ * tag carry a position: the zigzag-encoded change of line since the last position written,
+ * then the column. A missing child is the NULL tag.
+ */
+public class ASTWriter implements Visitor<Object,Object> {
+	static final int MAGIC = 0x6d4a6173; // "mJas"
+	static final int VERSION = 1;
+
+	// node tags
+	static final int HAS_POSITION = 0x80;
+	static final byte NULL = 0;
+	static final byte PACKAGE = 1;
+	static final byte CLASS_DECL = 2;
+	static final byte FIELD_DECL = 3;
+	static final byte METHOD_DECL = 4;
+	static final byte PARAMETER_DECL = 5;
+	static final byte VAR_DECL = 6;
+	static final byte BASE_TYPE = 7;
+	static final byte CLASS_TYPE = 8;
+	static final byte ARRAY_TYPE = 9;
+	static final byte BLOCK_STMT = 10;
+	static final byte VARDECL_STMT = 11;
+	static final byte ASSIGN_STMT = 12;
+	static final byte IXASSIGN_STMT = 13;
+	static final byte CALL_STMT = 14;
+	static final byte RETURN_STMT = 15;
+	static final byte IF_STMT = 16;
+	static final byte WHILE_STMT = 17;
+	static final byte UNARY_EXPR = 18;
+	static final byte BINARY_EXPR = 19;
+	static final byte REF_EXPR = 20;
+	static final byte IX_EXPR = 21;
+	static final byte CALL_EXPR = 22;
+	static final byte LITERAL_EXPR = 23;
+	static final byte NEWOBJECT_EXPR = 24;
+	static final byte NEWARRAY_EXPR = 25;
+	static final byte THIS_REF = 26;
+	static final byte ID_REF = 27;
+	static final byte QUAL_REF = 28;
+	static final byte IDENTIFIER = 29;
+	static final byte OPERATOR = 30;
+	static final byte INT_LITERAL = 31;
+	static final byte BOOLEAN_LITERAL = 32;
+	static final byte NULL_LITERAL = 33;
+
+	private byte[] _body = new byte[1 << 12];
+	private int _size = 0;
+	private int _line = 0; // line of the last position written
+	private HashMap<String,Integer> _stringIndex = new HashMap<>();
+	private List<String> _strings = new ArrayList<>();
+
+	public static byte[] write(AST ast) {
+		ASTWriter writer = new ASTWriter();
+		writer.node(ast);
+		byte[] body = Arrays.copyOf(writer._body, writer._size);
+
+		writer._body = new byte[body.length / 4 + 64];
+		writer._size = 0;
+		writer.writeInt(MAGIC);
+		writer.writeInt(VERSION);
+		writer.writeVarint(writer._strings.size());
+		for (String s : writer._strings) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writer.writeVarint(bytes.length);
+			writer.writeBytes(bytes, bytes.length);
+		}
+		writer.writeBytes(body, body.length);
+		return Arrays.copyOf(writer._body, writer._size);
+	}
+
+	private void node(AST ast) {
+		if (ast == null) {
+			writeByte(NULL);
+			return;
+		}
+		ast.visit(this, null);
+	}
+
+	private void header(byte tag, AST ast) {
+		SourcePosition posn = ast.posn;
+		if (posn == null) {
+			writeByte(tag);
+			return;
+		}
+		writeByte((byte) (tag | HAS_POSITION));
+		int delta = posn.getLine() - _line;
+		writeVarint((delta << 1) ^ (delta >> 31));
+		writeVarint(posn.getCol());
+		_line = posn.getLine();
+	}
+
+	private void writeString(String s) {
+		if (s == null) {
+			writeVarint(0);
+			return;
+		}
+		Integer idx = _stringIndex.get(s);
+		if (idx == null) {
+			_strings.add(s);
+			idx = _strings.size();
+			_stringIndex.put(s, idx);
+		}
+		writeVarint(idx);
+	}
+
+	private void writeBoolean(boolean b) {
+		writeByte((byte) (b ? 1 : 0));
+	}
+
+	private void writeByte(byte b) {
+		if (_size == _body.length)
+			_body = Arrays.copyOf(_body, _body.length * 2);
+		_body[_size++] = b;
+	}
+
+	private void writeVarint(int v) {
+		while ((v & ~0x7F) != 0) {
+			writeByte((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		writeByte((byte) v);
+	}
+
+	private void writeInt(int v) {
+		for (int shift = 24; shift >= 0; shift -= 8)
+			writeByte((byte) (v >>> shift));
+	}
+
+	private void writeLong(long v) {
+		writeInt((int) (v >>> 32));
+		writeInt((int) v);
+	}
+
+	private void writeBytes(byte[] bytes, int len) {
+		while (_size + len > _body.length)
+			_body = Arrays.copyOf(_body, _body.length * 2);
+		System.arraycopy(bytes, 0, _body, _size, len);
+		_size += len;
+	}
+
+	private void terminal(byte tag, Terminal t) {
+		header(tag, t);
+		writeVarint(t.kind.ordinal());
+		writeString(t.spelling);
+	}
+
+	private void memberDecl(MemberDecl md) {
+		writeString(md.name);
+		writeBoolean(md.isPrivate);
+		writeBoolean(md.isStatic);
+		node(md.type);
+	}
+
+	private void exprList(ExprList el) {
+		writeVarint(el.size());
+		for (Expression e : el)
+			node(e);
+	}
+
+	// PACKAGE
+
+	public Object visitPackage(Package prog, Object arg) {
+		header(PACKAGE, prog);
+		writeVarint(prog.classDeclList.size());
+		for (ClassDecl cd : prog.classDeclList)
+			node(cd);
+		return null;
+	}
+
+	// DECLARATIONS
+
+	public Object visitClassDecl(ClassDecl cd, Object arg) {
+		header(CLASS_DECL, cd);
+		writeString(cd.name);
+		writeLong(cd.contentHash);
+		writeVarint(cd.fieldDeclList.size());
+		for (FieldDecl fd : cd.fieldDeclList)
+			node(fd);
+		writeVarint(cd.methodDeclList.size());
+		for (MethodDecl md : cd.methodDeclList)
+			node(md);
+		return null;
+	}
+
+	public Object visitFieldDecl(FieldDecl fd, Object arg) {
+		header(FIELD_DECL, fd);
+		memberDecl(fd);
+		writeString(fd.classn);
+		return null;
+	}
+
+	public Object visitMethodDecl(MethodDecl md, Object arg) {
+		header(METHOD_DECL, md);
+		memberDecl(md);
+		writeString(md.classn);
+		writeVarint(md.parameterDeclList.size());
+		for (ParameterDecl pd : md.parameterDeclList)
+			node(pd);
+		writeVarint(md.statementList.size());
+		for (Statement s : md.statementList)
+			node(s);
+		return null;
+	}
+
+	public Object visitParameterDecl(ParameterDecl pd, Object arg) {
+		header(PARAMETER_DECL, pd);
+		writeString(pd.name);
+		writeString(pd.classn);
+		node(pd.type);
+		return null;
+	}
+
+	public Object visitVarDecl(VarDecl decl, Object arg) {
+		header(VAR_DECL, decl);
+		writeString(decl.name);
+		writeString(decl.classn);
+		node(decl.type);
+		return null;
+	}
+
+	// TYPES
+
+	public Object visitBaseType(BaseType type, Object arg) {
+		header(BASE_TYPE, type);
+		writeVarint(type.typeKind.ordinal());
+		writeString(type.classn);
+		return null;
+	}
+
+	public Object visitClassType(ClassType type, Object arg) {
+		header(CLASS_TYPE, type);
+		node(type.className);
+		writeString(type.classn);
+		return null;
+	}
+
+	public Object visitArrayType(ArrayType type, Object arg) {
+		header(ARRAY_TYPE, type);
+		node(type.eltType);
+		writeString(type.classn);
+		return null;
+	}
+
+	// STATEMENTS
+
+	public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+		header(BLOCK_STMT, stmt);
+		writeVarint(stmt.sl.size());
+		for (Statement s : stmt.sl)
+			node(s);
+		return null;
+	}
+
+	public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+		header(VARDECL_STMT, stmt);
+		node(stmt.varDecl);
+		node(stmt.initExp);
+		return null;
+	}
+
+	public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+		header(ASSIGN_STMT, stmt);
+		node(stmt.ref);
+		node(stmt.val);
+		return null;
+	}
+
+	public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+		header(IXASSIGN_STMT, stmt);
+		node(stmt.ref);
+		node(stmt.ix);
+		node(stmt.exp);
+		return null;
+	}
+
+	public Object visitCallStmt(CallStmt stmt, Object arg) {
+		header(CALL_STMT, stmt);
+		node(stmt.methodRef);
+		exprList(stmt.argList);
+		return null;
+	}
+
+	public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+		header(RETURN_STMT, stmt);
+		node(stmt.returnExpr);
+		return null;
+	}
+
+	public Object visitIfStmt(IfStmt stmt, Object arg) {
+		header(IF_STMT, stmt);
+		node(stmt.cond);
+		node(stmt.thenStmt);
+		node(stmt.elseStmt);
+		return null;
+	}
+
+	public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+		header(WHILE_STMT, stmt);
+		node(stmt.cond);
+		node(stmt.body);
+		return null;
+	}
+
+	// EXPRESSIONS
+
+	public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+		header(UNARY_EXPR, expr);
+		node(expr.operator);
+		node(expr.expr);
+		return null;
+	}
+
+	public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+		header(BINARY_EXPR, expr);
+		node(expr.operator);
+		node(expr.left);
+		node(expr.right);
+		return null;
+	}
+
+	public Object visitRefExpr(RefExpr expr, Object arg) {
+		header(REF_EXPR, expr);
+		node(expr.ref);
+		return null;
+	}
+
+	public Object visitIxExpr(IxExpr expr, Object arg) {
+		header(IX_EXPR, expr);
+		node(expr.ref);
+		node(expr.ixExpr);
+		return null;
+	}
+
+	public Object visitCallExpr(CallExpr expr, Object arg) {
+		header(CALL_EXPR, expr);
+		node(expr.functionRef);
+		exprList(expr.argList);
+		return null;
+	}
+
+	public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+		header(LITERAL_EXPR, expr);
+		node(expr.lit);
+		return null;
+	}
+
+	public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+		header(NEWOBJECT_EXPR, expr);
+		node(expr.classtype);
+		return null;
+	}
+
+	public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+		header(NEWARRAY_EXPR, expr);
+		node(expr.eltType);
+		node(expr.sizeExpr);
+		return null;
+	}
+
+	// REFERENCES
+
+	public Object visitThisRef(ThisRef ref, Object arg) {
+		header(THIS_REF, ref);
+		return null;
+	}
+
+	public Object visitIdRef(IdRef ref, Object arg) {
+		header(ID_REF, ref);
+		node(ref.id);
+		return null;
+	}
+
+	public Object visitQRef(QualRef ref, Object arg) {
+		header(QUAL_REF, ref);
+		node(ref.ref);
+		node(ref.id);
+		return null;
+	}
+
+	// TERMINALS
+
+	public Object visitIdentifier(Identifier id, Object arg) {
+		terminal(IDENTIFIER, id);
+		return null;
+	}
+
+	public Object visitOperator(Operator op, Object arg) {
+		terminal(OPERATOR, op);
+		return null;
+	}
+
+	public Object visitIntLiteral(IntLiteral num, Object arg) {
+		terminal(INT_LITERAL, num);
+		return null;
+	}
+
+	public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+		terminal(BOOLEAN_LITERAL, bool);
+		return null;
+	}
+
+	public Object visitNullLiteral(NullLiteral nuLL, Object arg) {
+		terminal(NULL_LITERAL, nuLL);
+		return null;
+	}
+}
@@ -21,4 +21,5 @@ public class ClassDecl extends Declaration {
       
   public FieldDeclList fieldDeclList;
   public MethodDeclList methodDeclList;
+  public long contentHash; // hash of the class's tokens, set by the parser
 }
@@ -0,0 +1,344 @@
+package miniJava.CodeGeneration;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.SyntacticAnalyzer.SourcePosition;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+// Rewrites a type-checked AST so constant subexpressions become literals and identities
+//  (x + 0, x * 1, true && x, ...) lose their operation. Expression visitors return the
+//  expression that replaces the visited one, statements store it back in place.
+// Integer results are computed in 64 bits like the generated code does, and only folded when
+//  they fit an int literal. Division by zero is left for the program to hit. An operand is
+//  only dropped when evaluating it could have had no effect, apart from the right side of
+//  && and ||, which Java does not evaluate in the cases that drop it.
+public class ConstantFolding implements Visitor<Object, Object> {
+	public void fold(Package prog) {
+		prog.visit(this, null);
+	}
+
+	private Expression fold(Expression expr) {
+		return (Expression) expr.visit(this, null);
+	}
+
+	private static Long intValue(Expression expr) {
+		if (expr instanceof LiteralExpr && ((LiteralExpr) expr).lit instanceof IntLiteral)
+			return Long.parseLong(((LiteralExpr) expr).lit.spelling);
+		return null;
+	}
+
+	private static Boolean booleanValue(Expression expr) {
+		if (expr instanceof LiteralExpr && ((LiteralExpr) expr).lit instanceof BooleanLiteral)
+			return ((LiteralExpr) expr).lit.spelling.equals("true");
+		return null;
+	}
+
+	private static Token token(TokenType type, String text, SourcePosition posn) {
+		return posn == null ? new Token(type, text) : new Token(type, text, posn.getLine(), posn.getCol());
+	}
+
+	// null when the value does not fit an int literal
+	private static Expression intLiteral(long value, SourcePosition posn) {
+		if (value != (int) value)
+			return null;
+		return new LiteralExpr(new IntLiteral(token(TokenType.NUM, Long.toString(value), posn)), posn);
+	}
+
+	private static Expression booleanLiteral(boolean value, SourcePosition posn) {
+		return new LiteralExpr(new BooleanLiteral(token(TokenType.BOOLVALUE, Boolean.toString(value), posn)), posn);
+	}
+
+	// evaluating expr cannot fail, call anything or allocate
+	private static boolean isPure(Expression expr) {
+		if (expr instanceof LiteralExpr)
+			return true;
+		if (expr instanceof RefExpr) {
+			Reference ref = ((RefExpr) expr).ref;
+			return ref instanceof IdRef || ref instanceof ThisRef;
+		}
+		if (expr instanceof UnaryExpr)
+			return isPure(((UnaryExpr) expr).expr);
+		if (expr instanceof BinaryExpr) {
+			BinaryExpr b = (BinaryExpr) expr;
+			return !b.operator.spelling.equals("/") && isPure(b.left) && isPure(b.right);
+		}
+		return false;
+	}
+
+	@Override
+	public Object visitPackage(Package prog, Object arg) {
+		for (ClassDecl cd : prog.classDeclList)
+			cd.visit(this, null);
+		return null;
+	}
+
+	@Override
+	public Object visitClassDecl(ClassDecl cd, Object arg) {
+		for (MethodDecl md : cd.methodDeclList)
+			md.visit(this, null);
+		return null;
+	}
+
+	@Override
+	public Object visitFieldDecl(FieldDecl fd, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitMethodDecl(MethodDecl md, Object arg) {
+		for (Statement s : md.statementList)
+			s.visit(this, null);
+		return null;
+	}
+
+	@Override
+	public Object visitParameterDecl(ParameterDecl pd, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitVarDecl(VarDecl decl, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitBaseType(BaseType type, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitClassType(ClassType type, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitArrayType(ArrayType type, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+		for (Statement s : stmt.sl)
+			s.visit(this, null);
+		return null;
+	}
+
+	@Override
+	public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+		stmt.initExp = fold(stmt.initExp);
+		return null;
+	}
+
+	@Override
+	public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+		stmt.val = fold(stmt.val);
+		return null;
+	}
+
+	@Override
+	public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+		stmt.ix = fold(stmt.ix);
+		stmt.exp = fold(stmt.exp);
+		return null;
+	}
+
+	@Override
+	public Object visitCallStmt(CallStmt stmt, Object arg) {
+		for (int i = 0; i < stmt.argList.size(); ++i)
+			stmt.argList.set(i, fold(stmt.argList.get(i)));
+		return null;
+	}
+
+	@Override
+	public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+		if (stmt.returnExpr != null)
+			stmt.returnExpr = fold(stmt.returnExpr);
+		return null;
+	}
+
+	@Override
+	public Object visitIfStmt(IfStmt stmt, Object arg) {
+		stmt.cond = fold(stmt.cond);
+		stmt.thenStmt.visit(this, null);
+		if (stmt.elseStmt != null)
+			stmt.elseStmt.visit(this, null);
+		return null;
+	}
+
+	@Override
+	public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+		stmt.cond = fold(stmt.cond);
+		stmt.body.visit(this, null);
+		return null;
+	}
+
+	@Override
+	public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+		expr.expr = fold(expr.expr);
+		boolean negate = expr.operator.spelling.equals("-");
+
+		// - - x and ! ! x
+		if (expr.expr instanceof UnaryExpr && ((UnaryExpr) expr.expr).operator.spelling.equals(expr.operator.spelling))
+			return ((UnaryExpr) expr.expr).expr;
+
+		Long i = intValue(expr.expr);
+		if (negate && i != null) {
+			Expression folded = intLiteral(-i, expr.posn);
+			return folded != null ? folded : expr;
+		}
+		Boolean b = booleanValue(expr.expr);
+		if (!negate && b != null)
+			return booleanLiteral(!b, expr.posn);
+		return expr;
+	}
+
+	@Override
+	public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+		expr.left = fold(expr.left);
+		expr.right = fold(expr.right);
+		String op = expr.operator.spelling;
+
+		Long l = intValue(expr.left);
+		Long r = intValue(expr.right);
+		if (l != null && r != null) {
+			Expression folded = foldInts(op, l, r, expr.posn);
+			return folded != null ? folded : expr;
+		}
+		Boolean bl = booleanValue(expr.left);
+		Boolean br = booleanValue(expr.right);
+		if (bl != null && br != null && (op.equals("==") || op.equals("!=")))
+			return booleanLiteral(bl.equals(br) == op.equals("=="), expr.posn);
+
+		switch (op) {
+			case "&&":
+				if (bl != null)
+					return bl ? expr.right : expr.left;
+				if (br != null && (br || isPure(expr.left)))
+					return br ? expr.left : expr.right;
+				break;
+			case "||":
+				if (bl != null)
+					return bl ? expr.left : expr.right;
+				if (br != null && (!br || isPure(expr.left)))
+					return br ? expr.right : expr.left;
+				break;
+			case "+":
+				if (Long.valueOf(0).equals(l))
+					return expr.right;
+				if (Long.valueOf(0).equals(r))
+					return expr.left;
+				break;
+			case "-":
+				if (Long.valueOf(0).equals(r))
+					return expr.left;
+				break;
+			case "*":
+				if (Long.valueOf(1).equals(l))
+					return expr.right;
+				if (Long.valueOf(1).equals(r))
+					return expr.left;
+				if (Long.valueOf(0).equals(l) && isPure(expr.right))
+					return expr.left;
+				if (Long.valueOf(0).equals(r) && isPure(expr.left))
+					return expr.right;
+				break;
+			case "/":
+				if (Long.valueOf(1).equals(r))
+					return expr.left;
+				break;
+		}
+		return expr;
+	}
+
+	// null when the result is left to run time
+	private static Expression foldInts(String op, long l, long r, SourcePosition posn) {
+		switch (op) {
+			case "+": return intLiteral(l + r, posn);
+			case "-": return intLiteral(l - r, posn);
+			case "*": return intLiteral(l * r, posn);
+			case "/": return r == 0 ? null : intLiteral(l / r, posn);
+			case "==": return booleanLiteral(l == r, posn);
+			case "!=": return booleanLiteral(l != r, posn);
+			case "<": return booleanLiteral(l < r, posn);
+			case "<=": return booleanLiteral(l <= r, posn);
+			case ">": return booleanLiteral(l > r, posn);
+			case ">=": return booleanLiteral(l >= r, posn);
+		}
+		return null;
+	}
+
+	@Override
+	public Object visitRefExpr(RefExpr expr, Object arg) {
+		return expr;
+	}
+
+	@Override
+	public Object visitIxExpr(IxExpr expr, Object arg) {
+		expr.ixExpr = fold(expr.ixExpr);
+		return expr;
+	}
+
+	@Override
+	public Object visitCallExpr(CallExpr expr, Object arg) {
+		for (int i = 0; i < expr.argList.size(); ++i)
+			expr.argList.set(i, fold(expr.argList.get(i)));
+		return expr;
+	}
+
+	@Override
+	public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+		return expr;
+	}
+
+	@Override
+	public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+		return expr;
+	}
+
+	@Override
+	public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+		expr.sizeExpr = fold(expr.sizeExpr);
+		return expr;
+	}
+
+	@Override
+	public Object visitThisRef(ThisRef ref, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitIdRef(IdRef ref, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitQRef(QualRef ref, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitIdentifier(Identifier id, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitOperator(Operator op, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitIntLiteral(IntLiteral num, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitNullLiteral(NullLiteral nuLL, Object arg) {
+		return null;
+	}
+}
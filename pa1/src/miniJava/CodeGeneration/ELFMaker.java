@@ -108,7 +108,7 @@ public class ELFMaker {
 		textSeg.p_vaddr = text.sh_addr;
 		textSeg.p_paddr = text.sh_addr;
 		textSeg.p_filesz = text.sh_size;
-		textSeg.p_memsz = text.sh_size;
+		textSeg.p_memsz = text.sh_size + bss.sh_size; // .bss follows .text and is zero-filled
 		
 		elf.e_entry = text.sh_addr + entrypoint;
 		elf.e_shoff = shStartAddress;
@@ -0,0 +1,448 @@
+package miniJava.CodeGeneration;
+
+import java.util.ArrayList;
+
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+// A generational copying collector. New objects are bumped out of a fixed nursery; when it
+//  runs out, a minor collection copies whatever is still reachable into the tenured space and
+//  the nursery starts over. When the tenured space reaches its soft limit, a major collection
+//  copies everything reachable from both into the spare tenured space, which takes over, and
+//  the old one goes back to the kernel. The soft limit then follows the live size, so memory
+//  stays proportional to what the program holds on to. Objects over a quarter of the nursery
+//  go straight to the tenured space.
+// The three spaces are one mapping, [tenured | nursery | spare], so a major collection's from
+//  space is always one range. It is reserved with MAP_NORESERVE and only touched pages count.
+// Every object starts with a header word: the payload size in words, bit 30 set for an array
+//  of references, and for objects the number of reference fields above bit 32, which come
+//  first. An array's payload is its length and then its elements. A copied object's header is
+//  the negated new address.
+// The roots are the static fields holding references, which CodeGenerator keeps together in
+//  .bss, the references in the frame, which IRLowering keeps together at its top, and the
+//  registers each allocation site says hold one. Minor collections scan the whole tenured
+//  space for references into the nursery instead of remembering stores, so no write barrier
+//  is needed. The frame walked is the current one, as nothing calls yet.
+// Allocation is inline and only changes RAX and RDX, the collector keeps every other register.
+public class HeapAllocator {
+	private static final int NURSERY_SIZE = 4 << 20;
+	private static final int SPACE_SIZE = 1 << 30; // of each tenured space
+	private static final int LARGE = NURSERY_SIZE / 4;
+	private static final int MIN_SOFT_LIMIT = 4 * NURSERY_SIZE;
+	private static final int MAP_PRIVATE_ANONYMOUS_NORESERVE = 0x02 | 0x20 | 0x4000;
+	private static final int MADV_DONTNEED = 4;
+	private static final int WORDS = (1 << 30) - 1;
+	private static final int REFERENCE_ARRAY = 1 << 30;
+
+	private InstructionList _asm;
+	private OutputBuffer _out;
+	private int _next; // .bss offsets
+	private int _limit;
+	private int _nursery;
+	private int _tenured;
+	private int _tenuredNext;
+	private int _spare;
+	private int _softLimit;
+	private int _stackMap; // of the allocation collecting
+	private int _saved; // where the collector pushed the registers
+	private int _staticRoots; // .bss offset of the first
+	private int _staticRootCount;
+	private int _trace = -1; // routines both collections call
+	private int _reset = -1;
+	private ArrayList<Integer> _collectCalls = new ArrayList<>();
+
+	// out is how a failed allocation ends the program
+	public HeapAllocator(InstructionList asm, OutputBuffer out) {
+		this._asm = asm;
+		this._out = out;
+		this._next = asm.allocateData(8);
+		this._limit = asm.allocateData(8);
+		this._nursery = asm.allocateData(8);
+		this._tenured = asm.allocateData(8);
+		this._tenuredNext = asm.allocateData(8);
+		this._spare = asm.allocateData(8);
+		this._softLimit = asm.allocateData(8);
+		this._stackMap = asm.allocateData(8);
+		this._saved = asm.allocateData(8);
+	}
+
+	// the count static fields from offset in .bss hold references
+	public void setStaticRoots(int offset, int count) {
+		this._staticRoots = offset;
+		this._staticRootCount = count;
+	}
+
+	private void data(Instruction ins, int offset) {
+		_asm.resolveData(_asm.add(ins), offset);
+	}
+
+	private static ModRMSIB rip(Reg64 r) {
+		return new ModRMSIB(Reg64.RIP, 0, r);
+	}
+
+	private void load(Reg64 r, int offset) {
+		data(new Mov_rrm(rip(r)), offset);
+	}
+
+	private void save(int offset, Reg64 r) {
+		data(new Mov_rmr(rip(r)), offset);
+	}
+
+	private void fail(Condition c) {
+		_out.failIf(c);
+	}
+
+	// d:= a zeroed object of fields words, the first references of them references.
+	//  stackMap is a mask of the registers holding references across the allocation, by
+	//  IRLowering's register index, and above bit 16 how many frame slots hold them.
+	public void allocate(Reg64 d, int fields, int references, int stackMap) {
+		load(Reg64.RAX, _next);
+		_asm.add(new Lea(new ModRMSIB(Reg64.RAX, 8 * (fields + 1), Reg64.RDX)));
+		bump(stackMap);
+		long header = fields | (long) references << 32;
+		if (header == (int) header) {
+			_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, 0), (int) header, true));
+		} else {
+			_asm.add(new Mov_ri64(Reg64.RDX, header));
+			_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, 0, Reg64.RDX)));
+		}
+		if (d != Reg64.RAX)
+			_asm.add(new Mov_rmr(new ModRMSIB(d, Reg64.RAX)));
+	}
+
+	// d:= a zeroed array of length elements, a length that is negative or too large for the
+	//  header ends the program
+	public void allocateArray(Reg64 d, Reg64 length, boolean references, int stackMap) {
+		_asm.add(new Cmp(new ModRMSIB(length, true), 0));
+		fail(Condition.LT);
+		_asm.add(new Cmp(new ModRMSIB(length, true), WORDS - 1));
+		fail(Condition.GT);
+		load(Reg64.RAX, _next);
+		_asm.add(new Lea(new ModRMSIB(Reg64.RAX, length, 8, 16, Reg64.RDX)));
+		bump(stackMap);
+		_asm.add(new Lea(new ModRMSIB(length, 1 + (references ? REFERENCE_ARRAY : 0), Reg64.RDX)));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, 0, Reg64.RDX)));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, 8, length)));
+		if (d != Reg64.RAX)
+			_asm.add(new Mov_rmr(new ModRMSIB(d, Reg64.RAX)));
+	}
+
+	// RAX is the block and RDX its end, moves the pointer there or collects first. The stack
+	//  map goes on the stack, which leaves every register to the allocation.
+	private void bump(int stackMap) {
+		data(new Cmp(rip(Reg64.RDX)), _limit); // limit - end
+		int fits = _asm.add(new CondJmp(Condition.GTE, 0));
+		_asm.add(new Push(stackMap));
+		_collectCalls.add(_asm.add(new Call(0)));
+		_asm.add(new Add(new ModRMSIB(Reg64.RSP, true), 8));
+		_asm.resolveBranch(fits, _asm.getNextIdx());
+		save(_next, Reg64.RDX);
+	}
+
+	// Emits the out-of-line routines, after the last instruction that may run. Called once,
+	//  after every allocation.
+	public void emitRuntime() {
+		if (!_collectCalls.isEmpty())
+			emitCollector();
+	}
+
+	// collect: RAX and RDX are the block and end that did not fit. On return they are a block
+	//  of the same size and its end if it is in the nursery, or the nursery pointer as it is.
+	private void emitCollector() {
+		int collect = _asm.getNextIdx();
+		_asm.add(new Push(Reg64.RCX));
+		for (Reg64 r : IRLowering.REGISTERS)
+			_asm.add(new Push(r));
+		save(_saved, Reg64.RSP);
+		_asm.add(new Mov_rrm(new ModRMSIB(Reg64.RSP, 8 * (IRLowering.REGISTERS.length + 2), Reg64.RCX)));
+		save(_stackMap, Reg64.RCX);
+		_asm.add(new Sub(new ModRMSIB(Reg64.RDX, Reg64.RAX)));
+		_asm.add(new Push(Reg64.RDX)); // size
+
+		load(Reg64.RAX, _nursery);
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), 0));
+		int ready = _asm.add(new CondJmp(Condition.NE, 0));
+		int callMap = _asm.add(new Call(0));
+		_asm.resolveBranch(ready, _asm.getNextIdx());
+		_asm.add(new Mov_rrm(new ModRMSIB(Reg64.RSP, 0, Reg64.RDX)));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RDX, true), LARGE));
+		int large = _asm.add(new CondJmp(Condition.GT, 0));
+
+		// a minor collection needs room for the whole nursery in the tenured space
+		load(Reg64.RAX, _tenuredNext);
+		_asm.add(new Add(new ModRMSIB(Reg64.RAX, true), NURSERY_SIZE));
+		data(new Cmp(rip(Reg64.RAX)), _softLimit);
+		int minor = _asm.add(new CondJmp(Condition.GTE, 0));
+		int callMajor = _asm.add(new Call(0));
+		int small = _asm.add(new Jmp(0));
+		_asm.resolveBranch(minor, _asm.getNextIdx());
+		int callMinor = _asm.add(new Call(0));
+		_asm.resolveBranch(small, _asm.getNextIdx());
+		load(Reg64.RAX, _next);
+		_asm.add(new Mov_rrm(new ModRMSIB(Reg64.RSP, 0, Reg64.RDX)));
+		_asm.add(new Add(new ModRMSIB(Reg64.RDX, Reg64.RAX)));
+		int done = _asm.add(new Jmp(0));
+
+		_asm.resolveBranch(large, _asm.getNextIdx());
+		load(Reg64.RAX, _tenuredNext);
+		_asm.add(new Add(new ModRMSIB(Reg64.RAX, Reg64.RDX)));
+		data(new Cmp(rip(Reg64.RAX)), _softLimit);
+		int place = _asm.add(new CondJmp(Condition.GTE, 0));
+		int callMajorLarge = _asm.add(new Call(0));
+		load(Reg64.RAX, _tenuredNext);
+		_asm.add(new Mov_rrm(new ModRMSIB(Reg64.RSP, 0, Reg64.RDX)));
+		_asm.add(new Add(new ModRMSIB(Reg64.RAX, Reg64.RDX)));
+		load(Reg64.RCX, _tenured);
+		_asm.add(new Add(new ModRMSIB(Reg64.RCX, true), SPACE_SIZE));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RCX, Reg64.RAX)));
+		fail(Condition.LT); // out of memory
+		_asm.resolveBranch(place, _asm.getNextIdx());
+		save(_tenuredNext, Reg64.RAX);
+		_asm.add(new Sub(new ModRMSIB(Reg64.RAX, Reg64.RDX)));
+		load(Reg64.RDX, _next);
+
+		_asm.resolveBranch(done, _asm.getNextIdx());
+		_asm.add(new Add(new ModRMSIB(Reg64.RSP, true), 8));
+		for (int i = IRLowering.REGISTERS.length - 1; i >= 0; --i)
+			_asm.add(new Pop(IRLowering.REGISTERS[i]));
+		_asm.add(new Pop(Reg64.RCX));
+		_asm.add(new Ret());
+
+		for (int call : _collectCalls)
+			_asm.resolveBranch(call, collect);
+		_asm.resolveBranch(callMap, emitMap());
+		int major = emitMajor();
+		_asm.resolveBranch(callMajor, major);
+		_asm.resolveBranch(callMajorLarge, major);
+		_asm.resolveBranch(callMinor, emitMinor());
+	}
+
+	// maps the spaces on the first collection, the nursery starting out empty
+	private int emitMap() {
+		int map = _asm.getNextIdx();
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 9)); // mmap
+		_asm.add(new Xor(new ModRMSIB(Reg64.RDI, Reg64.RDI)));
+		_asm.add(new Mov_ri64(Reg64.RSI, 2L * SPACE_SIZE + NURSERY_SIZE));
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDX, true), 3)); // prot read|write
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.R10, true), MAP_PRIVATE_ANONYMOUS_NORESERVE));
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.R8, true), -1)); // fd
+		_asm.add(new Xor(new ModRMSIB(Reg64.R9, Reg64.R9))); // offset
+		_asm.add(new Syscall());
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), 0));
+		fail(Condition.LT); // -errno
+		save(_tenured, Reg64.RAX);
+		save(_tenuredNext, Reg64.RAX);
+		_asm.add(new Lea(new ModRMSIB(Reg64.RAX, MIN_SOFT_LIMIT, Reg64.RDX)));
+		save(_softLimit, Reg64.RDX);
+		_asm.add(new Add(new ModRMSIB(Reg64.RAX, true), SPACE_SIZE));
+		save(_nursery, Reg64.RAX);
+		save(_next, Reg64.RAX);
+		_asm.add(new Add(new ModRMSIB(Reg64.RAX, true), NURSERY_SIZE));
+		save(_limit, Reg64.RAX);
+		save(_spare, Reg64.RAX);
+		_asm.add(new Ret());
+		return map;
+	}
+
+	// The collections copy out of [R12, R13) to R14 on, and R15 follows R14 through what is
+	//  there from where scanning starts. Both end by emptying the nursery.
+	private int emitMinor() {
+		int minor = _asm.getNextIdx();
+		load(Reg64.R12, _nursery);
+		_asm.add(new Lea(new ModRMSIB(Reg64.R12, NURSERY_SIZE, Reg64.R13)));
+		load(Reg64.R14, _tenuredNext);
+		load(Reg64.R15, _tenured); // everything tenured may point into the nursery
+		int callTrace = _asm.add(new Call(0));
+		save(_tenuredNext, Reg64.R14);
+		int reset = _asm.add(new Jmp(0));
+		_asm.resolveBranch(callTrace, emitTrace());
+		_asm.resolveBranch(reset, emitReset());
+		return minor;
+	}
+
+	// zeroes what the nursery handed out and starts it over
+	private int emitReset() {
+		if (_reset >= 0)
+			return _reset;
+		_reset = _asm.getNextIdx();
+		load(Reg64.RDI, _nursery);
+		load(Reg64.RCX, _next);
+		_asm.add(new Sub(new ModRMSIB(Reg64.RCX, Reg64.RDI)));
+		_asm.add(new Shr(new ModRMSIB(Reg64.RCX, true), 3));
+		_asm.add(new Xor(new ModRMSIB(Reg64.RAX, Reg64.RAX)));
+		_asm.add(new RepStosq());
+		load(Reg64.RDI, _nursery);
+		save(_next, Reg64.RDI);
+		_asm.add(new Ret());
+		return _reset;
+	}
+
+	private int emitMajor() {
+		int major = _asm.getNextIdx();
+		// the from space is the tenured space and the nursery, whichever side of it that is
+		load(Reg64.R12, _tenured);
+		load(Reg64.RAX, _nursery);
+		_asm.add(new Cmp(new ModRMSIB(Reg64.R12, Reg64.RAX)));
+		int below = _asm.add(new CondJmp(Condition.LT, 0));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.R13, Reg64.R12)));
+		_asm.add(new Add(new ModRMSIB(Reg64.R13, true), SPACE_SIZE));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.R12, Reg64.RAX)));
+		int from = _asm.add(new Jmp(0));
+		_asm.resolveBranch(below, _asm.getNextIdx());
+		_asm.add(new Lea(new ModRMSIB(Reg64.RAX, NURSERY_SIZE, Reg64.R13)));
+		_asm.resolveBranch(from, _asm.getNextIdx());
+		load(Reg64.R14, _spare);
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.R15, Reg64.R14)));
+		int callTrace = _asm.add(new Call(0));
+
+		// swap the spaces and give the old tenured pages back, which also zeroes them
+		load(Reg64.RDI, _tenured);
+		load(Reg64.RSI, _tenuredNext);
+		_asm.add(new Sub(new ModRMSIB(Reg64.RSI, Reg64.RDI)));
+		load(Reg64.RAX, _spare);
+		save(_tenured, Reg64.RAX);
+		save(_tenuredNext, Reg64.R14);
+		save(_spare, Reg64.RDI);
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDX, true), MADV_DONTNEED));
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 28)); // madvise
+		_asm.add(new Syscall());
+
+		// soft limit:= tenured + twice what survived and a nursery, within the space
+		load(Reg64.RAX, _tenured);
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDX, Reg64.R14)));
+		_asm.add(new Sub(new ModRMSIB(Reg64.RDX, Reg64.RAX)));
+		_asm.add(new Add(new ModRMSIB(Reg64.RDX, Reg64.RDX)));
+		_asm.add(new Add(new ModRMSIB(Reg64.RDX, true), NURSERY_SIZE));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RDX, true), MIN_SOFT_LIMIT));
+		int atLeast = _asm.add(new CondJmp(Condition.GTE, 0));
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDX, true), MIN_SOFT_LIMIT));
+		_asm.resolveBranch(atLeast, _asm.getNextIdx());
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RDX, true), SPACE_SIZE));
+		int atMost = _asm.add(new CondJmp(Condition.LTE, 0));
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDX, true), SPACE_SIZE));
+		_asm.resolveBranch(atMost, _asm.getNextIdx());
+		_asm.add(new Add(new ModRMSIB(Reg64.RDX, Reg64.RAX)));
+		save(_softLimit, Reg64.RDX);
+
+		// out of memory once the next minor collection might not fit
+		_asm.add(new Add(new ModRMSIB(Reg64.RAX, true), SPACE_SIZE));
+		_asm.add(new Lea(new ModRMSIB(Reg64.R14, NURSERY_SIZE, Reg64.RDX)));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RAX, Reg64.RDX)));
+		fail(Condition.LT);
+		int reset = _asm.add(new Jmp(0));
+		_asm.resolveBranch(callTrace, emitTrace());
+		_asm.resolveBranch(reset, emitReset());
+		return major;
+	}
+
+	// forwards the roots, then scans from R15 until it catches up with R14
+	private int emitTrace() {
+		if (_trace >= 0)
+			return _trace;
+		_trace = _asm.getNextIdx();
+		ArrayList<Integer> forwardCalls = new ArrayList<>();
+		load(Reg64.RBX, _stackMap);
+		load(Reg64.R10, _saved);
+		int n = IRLowering.REGISTERS.length;
+		for (int r = 0; r < n; ++r) {
+			_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, Reg64.RBX)));
+			_asm.add(new And(new ModRMSIB(Reg64.RAX, true), 1 << r));
+			int skip = _asm.add(new CondJmp(Condition.E, 0));
+			_asm.add(new Lea(new ModRMSIB(Reg64.R10, 8 * (n - 1 - r), Reg64.RDI)));
+			forwardCalls.add(_asm.add(new Call(0)));
+			_asm.resolveBranch(skip, _asm.getNextIdx());
+		}
+
+		if (_staticRootCount > 0) {
+			data(new Lea(rip(Reg64.RDI)), _staticRoots);
+			_asm.add(new Mov_rmi(new ModRMSIB(Reg64.R11, true), _staticRootCount));
+			int root = _asm.getNextIdx();
+			forwardCalls.add(_asm.add(new Call(0)));
+			_asm.add(new Add(new ModRMSIB(Reg64.RDI, true), 8));
+			_asm.add(new Sub(new ModRMSIB(Reg64.R11, true), 1));
+			_asm.resolveBranch(_asm.add(new CondJmp(Condition.NE, 0)), root);
+		}
+
+		// the frame slots from [rbp-8] down
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.R11, Reg64.RBX)));
+		_asm.add(new Shr(new ModRMSIB(Reg64.R11, true), 16));
+		_asm.add(new Lea(new ModRMSIB(Reg64.RBP, -8, Reg64.RDI)));
+		int frame = _asm.add(new Cmp(new ModRMSIB(Reg64.R11, true), 0));
+		int scan = _asm.add(new CondJmp(Condition.E, 0));
+		forwardCalls.add(_asm.add(new Call(0)));
+		_asm.add(new Sub(new ModRMSIB(Reg64.RDI, true), 8));
+		_asm.add(new Sub(new ModRMSIB(Reg64.R11, true), 1));
+		_asm.resolveBranch(_asm.add(new Jmp(0)), frame);
+
+		// RBX is the header, R10 the payload words, RDI and R11 the references left
+		_asm.resolveBranch(scan, _asm.getNextIdx());
+		int object = _asm.add(new Cmp(new ModRMSIB(Reg64.R15, Reg64.R14)));
+		int done = _asm.add(new CondJmp(Condition.GTE, 0));
+		_asm.add(new Mov_rrm(new ModRMSIB(Reg64.R15, 0, Reg64.RBX)));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.R10, Reg64.RBX)));
+		_asm.add(new And(new ModRMSIB(Reg64.R10, true), WORDS));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, Reg64.RBX)));
+		_asm.add(new And(new ModRMSIB(Reg64.RAX, true), REFERENCE_ARRAY));
+		int fields = _asm.add(new CondJmp(Condition.E, 0));
+		_asm.add(new Lea(new ModRMSIB(Reg64.R15, 16, Reg64.RDI)));
+		_asm.add(new Lea(new ModRMSIB(Reg64.R10, -1, Reg64.R11)));
+		int references = _asm.add(new Jmp(0));
+		_asm.resolveBranch(fields, _asm.getNextIdx());
+		_asm.add(new Lea(new ModRMSIB(Reg64.R15, 8, Reg64.RDI)));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.R11, Reg64.RBX)));
+		_asm.add(new Shr(new ModRMSIB(Reg64.R11, true), 32));
+		_asm.resolveBranch(references, _asm.getNextIdx());
+		int reference = _asm.add(new Cmp(new ModRMSIB(Reg64.R11, true), 0));
+		int next = _asm.add(new CondJmp(Condition.E, 0));
+		forwardCalls.add(_asm.add(new Call(0)));
+		_asm.add(new Add(new ModRMSIB(Reg64.RDI, true), 8));
+		_asm.add(new Sub(new ModRMSIB(Reg64.R11, true), 1));
+		_asm.resolveBranch(_asm.add(new Jmp(0)), reference);
+		_asm.resolveBranch(next, _asm.getNextIdx());
+		_asm.add(new Lea(new ModRMSIB(Reg64.R15, Reg64.R10, 8, 8, Reg64.R15)));
+		_asm.resolveBranch(_asm.add(new Jmp(0)), object);
+		_asm.resolveBranch(done, _asm.getNextIdx());
+		_asm.add(new Ret());
+
+		int forward = emitForward();
+		for (int call : forwardCalls)
+			_asm.resolveBranch(call, forward);
+		return _trace;
+	}
+
+	// [RDI]:= where the object it points to is now, copying it to R14 if it is in [R12, R13)
+	//  and was not copied yet. Changes RAX, RCX, RDX and RSI.
+	private int emitForward() {
+		int forward = _asm.getNextIdx();
+		_asm.add(new Mov_rrm(new ModRMSIB(Reg64.RDI, 0, Reg64.RAX)));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RAX, Reg64.R12))); // null is -1
+		int outside = _asm.add(new CondJmp(Condition.LT, 0));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RAX, Reg64.R13)));
+		int outsideToo = _asm.add(new CondJmp(Condition.GTE, 0));
+		_asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 0, Reg64.RDX)));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RDX, true), 0));
+		int copy = _asm.add(new CondJmp(Condition.GTE, 0));
+		_asm.add(new Neg(new ModRMSIB(Reg64.RDX, true)));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDI, 0, Reg64.RDX)));
+		_asm.add(new Ret());
+
+		_asm.resolveBranch(copy, _asm.getNextIdx());
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RCX, Reg64.RDX)));
+		_asm.add(new And(new ModRMSIB(Reg64.RCX, true), WORDS));
+		_asm.add(new Add(new ModRMSIB(Reg64.RCX, true), 1)); // and the header
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDI, 0, Reg64.R14)));
+		_asm.add(new Push(Reg64.RDI));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSI, Reg64.RAX)));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDI, Reg64.R14)));
+		_asm.add(new Lea(new ModRMSIB(Reg64.R14, Reg64.RCX, 8, 0, Reg64.R14)));
+		_asm.add(new RepMovsq());
+		_asm.add(new Pop(Reg64.RDI));
+		_asm.add(new Mov_rrm(new ModRMSIB(Reg64.RDI, 0, Reg64.RDX)));
+		_asm.add(new Neg(new ModRMSIB(Reg64.RDX, true)));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, 0, Reg64.RDX)));
+		_asm.resolveBranch(outside, _asm.getNextIdx());
+		_asm.resolveBranch(outsideToo, _asm.getNextIdx());
+		_asm.add(new Ret());
+		return forward;
+	}
+}
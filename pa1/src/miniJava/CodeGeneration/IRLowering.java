@@ -0,0 +1,443 @@
+package miniJava.CodeGeneration;
+
+import java.util.ArrayList;
+
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+import miniJava.IR.BasicBlock;
+import miniJava.IR.IRFunction;
+import miniJava.IR.LinearScan;
+import miniJava.IR.Opcode;
+
+// Emits x64 for an IRFunction after LinearScan has placed its virtual registers.
+// RAX, RCX and RDX are never handed out: idiv, setcc and allocation need RAX and RDX, and
+//  the three serve as scratch for spilled operands. RSP and RBP are the frame.
+// The frame below RBP holds the locals and the spill slots, 8 bytes each. The ones holding
+//  references come first and start out null, so the collector can take the top of the frame
+//  as its roots without knowing which of them the program has written yet.
+public class IRLowering {
+	// by index, as LinearScan hands them out, which is also the bit order of the register
+	//  masks HeapAllocator gets
+	static final Reg64[] REGISTERS = {
+		Reg64.RBX, Reg64.RSI, Reg64.RDI, Reg64.R8, Reg64.R9, Reg64.R10,
+		Reg64.R11, Reg64.R12, Reg64.R13, Reg64.R14, Reg64.R15
+	};
+
+	private InstructionList _asm;
+	private HeapAllocator _heap;
+	private OutputBuffer _out;
+	private IRFunction _f;
+	private LinearScan _alloc;
+	private int[] _frameIndex; // position in the frame of each local slot and then each spill slot
+	private int _references; // frame positions below this hold references
+	private int[] _blockIdx; // first instruction of each block, by block id
+	private ArrayList<int[]> _branches = new ArrayList<>(); // {instruction idx, target block id or -1 for the end}
+
+	public IRLowering(InstructionList asm, HeapAllocator heap, OutputBuffer out) {
+		this._asm = asm;
+		this._heap = heap;
+		this._out = out;
+	}
+
+	public void lower(IRFunction f) {
+		_f = f;
+		_alloc = new LinearScan(f, REGISTERS.length);
+		_blockIdx = new int[f.blockCount()];
+		_branches.clear();
+
+		layFrame();
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBP, Reg64.RSP)));
+		int frameSize = 8 * _frameIndex.length;
+		if (frameSize > 0)
+			_asm.add(new Sub(new ModRMSIB(Reg64.RSP, true), frameSize));
+		if (_references > 0) {
+			// rcx counts down, [rbp+rcx*8-8(n+1)] runs from [rbp-8] to [rbp-8n]
+			_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RCX, true), _references));
+			int clear = _asm.add(new Mov_rmi(new ModRMSIB(Reg64.RBP, Reg64.RCX, 8, -8 * (_references + 1)), 0, true));
+			_asm.add(new Sub(new ModRMSIB(Reg64.RCX, true), 1));
+			_asm.resolveBranch(_asm.add(new CondJmp(Condition.NE, 0)), clear);
+		}
+
+		for (int k = 0; k < f.blocks.size(); ++k) {
+			BasicBlock b = f.blocks.get(k);
+			BasicBlock next = k + 1 < f.blocks.size() ? f.blocks.get(k + 1) : null;
+			_blockIdx[b.id] = _asm.getNextIdx();
+			int pos = _alloc.blockStart(b);
+			for (int i = 0; i < b.size(); ++i, ++pos)
+				lowerInstruction(b, i, pos);
+			lowerExit(b, next);
+		}
+
+		int end = _asm.getNextIdx();
+		for (int[] branch : _branches)
+			_asm.resolveBranch(branch[0], branch[1] < 0 ? end : _blockIdx[branch[1]]);
+	}
+
+	// numbers the local and spill slots in the frame, the references first
+	private void layFrame() {
+		int locals = _f.slotCount();
+		boolean[] reference = new boolean[locals + _alloc.spillSlots()];
+		for (int s = 0; s < locals; ++s)
+			reference[s] = _f.isReferenceSlot(s);
+		for (int v = 0; v < _f.vregCount(); ++v) {
+			if (_alloc.registerOf(v) < 0 && _f.isReference(v))
+				reference[locals + _alloc.spillSlotOf(v)] = true;
+		}
+		_frameIndex = new int[reference.length];
+		int next = 0;
+		for (int s = 0; s < reference.length; ++s) {
+			if (reference[s])
+				_frameIndex[s] = next++;
+		}
+		_references = next;
+		for (int s = 0; s < reference.length; ++s) {
+			if (!reference[s])
+				_frameIndex[s] = next++;
+		}
+	}
+
+	private ModRMSIB slot(int s, Reg64 r) {
+		return new ModRMSIB(Reg64.RBP, -8 * (_frameIndex[s] + 1), r);
+	}
+
+	// what the collector needs at an allocation: the registers holding references across it
+	//  and how many frame slots do
+	private int stackMap(int pos) {
+		return _alloc.referencesLiveAcross(pos) | _references << 16;
+	}
+
+	private int spillSlot(int v) {
+		return _f.slotCount() + _alloc.spillSlotOf(v);
+	}
+
+	// the register holding v, loading it into scratch first if it was spilled
+	private Reg64 use(int v, Reg64 scratch) {
+		int r = _alloc.registerOf(v);
+		if (r >= 0)
+			return REGISTERS[r];
+		_asm.add(new Mov_rrm(slot(spillSlot(v), scratch)));
+		return scratch;
+	}
+
+	// where the result for v is computed, RAX when v lives in memory, see store
+	private Reg64 target(int v) {
+		int r = _alloc.registerOf(v);
+		return r >= 0 ? REGISTERS[r] : Reg64.RAX;
+	}
+
+	private void store(int v, Reg64 from) {
+		if (_alloc.registerOf(v) < 0)
+			_asm.add(new Mov_rmr(slot(spillSlot(v), from)));
+	}
+
+	// [rip+disp32] at the static field at .bss offset
+	private void data(Instruction ins, int offset) {
+		_asm.resolveData(_asm.add(ins), offset);
+	}
+
+	private void move(Reg64 to, Reg64 from) {
+		if (to != from)
+			_asm.add(new Mov_rmr(new ModRMSIB(to, from)));
+	}
+
+	private void lowerInstruction(BasicBlock b, int i, int pos) {
+		Opcode op = b.op(i);
+		int dst = b.dst(i);
+		switch (op) {
+			case CONST: {
+				Reg64 d = target(dst);
+				_asm.add(new Mov_rmi(new ModRMSIB(d, true), b.a(i)));
+				store(dst, d);
+				return;
+			}
+			case LOAD: {
+				Reg64 d = target(dst);
+				_asm.add(new Mov_rrm(slot(b.a(i), d)));
+				store(dst, d);
+				return;
+			}
+			case STORE:
+				_asm.add(new Mov_rmr(slot(b.b(i), use(b.a(i), Reg64.RAX))));
+				return;
+			case GETSTATIC: {
+				Reg64 d = target(dst);
+				data(new Mov_rrm(new ModRMSIB(Reg64.RIP, 0, d)), b.a(i));
+				store(dst, d);
+				return;
+			}
+			case PUTSTATIC: {
+				Reg64 v = use(b.a(i), Reg64.RAX);
+				data(new Mov_rmr(new ModRMSIB(Reg64.RIP, 0, v)), b.b(i));
+				return;
+			}
+			case GETFIELD: {
+				Reg64 d = target(dst);
+				Reg64 object = use(b.a(i), d);
+				_asm.add(new Mov_rrm(new ModRMSIB(object, b.b(i), d)));
+				store(dst, d);
+				return;
+			}
+			case GETBYTE: {
+				Reg64 d = target(dst);
+				Reg64 object = use(b.a(i), d);
+				_asm.add(new Movzx(new ModRMSIB(object, b.b(i), d)));
+				store(dst, d);
+				return;
+			}
+			case PUTFIELD: {
+				Reg64 object = use(b.a(i), Reg64.RAX);
+				Reg64 v = use(b.b(i), Reg64.RCX);
+				_asm.add(new Mov_rmr(new ModRMSIB(object, dst, v)));
+				return;
+			}
+			case PUTBYTE: {
+				// Reg8 only names the low bytes of RAX to RBX, v goes through DL
+				Reg64 object = use(b.a(i), Reg64.RAX);
+				move(Reg64.RDX, use(b.b(i), Reg64.RDX));
+				_asm.add(new Mov_rmr(new ModRMSIB(object, dst, Reg8.DL)));
+				return;
+			}
+			case NEW: {
+				Reg64 d = target(dst);
+				_heap.allocate(d, b.a(i), b.b(i), stackMap(pos));
+				store(dst, d);
+				return;
+			}
+			case NEWARRAY: {
+				Reg64 d = target(dst);
+				_heap.allocateArray(d, use(b.a(i), Reg64.RCX), b.b(i) != 0, stackMap(pos));
+				store(dst, d);
+				return;
+			}
+			case PRINT:
+				_out.println(use(b.a(i), Reg64.RAX));
+				return;
+			default:
+				break;
+		}
+
+		// dst is either the left operand's own register or one no operand uses, so it can
+		//  take the left operand before the right one is read
+		Reg64 d = target(dst);
+		Reg64 left = use(b.a(i), d);
+		if (op == Opcode.MULI) {
+			multiply(d, left, b.b(i));
+			store(dst, d);
+			return;
+		}
+		if (op == Opcode.DIVI) {
+			divide(d, left, b.b(i));
+			store(dst, d);
+			return;
+		}
+		if (op.uses == 1) {
+			move(d, left);
+			if (op == Opcode.NEG)
+				_asm.add(new Neg(new ModRMSIB(d, true)));
+			else if (op == Opcode.NOT)
+				_asm.add(new Xor(new ModRMSIB(d, true), 1));
+			store(dst, d);
+			return;
+		}
+
+		Reg64 right = use(b.b(i), Reg64.RCX);
+		if (op.isComparison()) {
+			// SetCond only reaches AL, and clearing RAX with mov leaves the flags alone
+			_asm.add(new Cmp(new ModRMSIB(left, right)));
+			_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 0));
+			_asm.add(new SetCond(condition(op), Reg8.AL));
+			move(d, Reg64.RAX);
+			store(dst, d);
+			return;
+		}
+		if (op == Opcode.DIV) {
+			// idiv would trap on a zero divisor, leaving through exit writes out what was printed
+			_asm.add(new Cmp(new ModRMSIB(right, true), 0));
+			_out.failIf(Condition.E);
+			move(Reg64.RAX, left);
+			_asm.add(new Cqo());
+			_asm.add(new Idiv(new ModRMSIB(right, true)));
+			move(d, Reg64.RAX);
+			store(dst, d);
+			return;
+		}
+
+		move(d, left);
+		switch (op) {
+			case ADD:
+				_asm.add(new Add(new ModRMSIB(d, right)));
+				break;
+			case SUB:
+				_asm.add(new Sub(new ModRMSIB(d, right)));
+				break;
+			case MUL:
+				_asm.add(new Imul(d, new ModRMSIB(right, true)));
+				break;
+			default:
+				throw new IllegalStateException("Cannot lower " + op);
+		}
+		store(dst, d);
+	}
+
+	// d:= left * imm. An odd factor of 3, 5 or 9 is one lea, a product of two of them is two,
+	//  a power of two is a shift. Anything else is imul with an immediate.
+	private void multiply(Reg64 d, Reg64 left, int imm) {
+		long m = Math.abs((long) imm);
+		if (m == 0) {
+			_asm.add(new Mov_rmi(new ModRMSIB(d, true), 0));
+			return;
+		}
+		int shift = Long.numberOfTrailingZeros(m);
+		long odd = m >> shift;
+		if (odd == 1) {
+			move(d, left);
+		} else if (odd == 3 || odd == 5 || odd == 9) {
+			scale(d, left, (int) odd);
+		} else if (odd % 3 == 0 && isLeaFactor(odd / 3)) {
+			scale(d, left, 3);
+			scale(d, d, (int) (odd / 3));
+		} else if (odd % 5 == 0 && isLeaFactor(odd / 5)) {
+			scale(d, left, 5);
+			scale(d, d, (int) (odd / 5));
+		} else {
+			_asm.add(new Imul(d, new ModRMSIB(left, true), imm));
+			return;
+		}
+		if (shift > 0)
+			_asm.add(new Shl(new ModRMSIB(d, true), shift));
+		if (imm < 0)
+			_asm.add(new Neg(new ModRMSIB(d, true)));
+	}
+
+	private static boolean isLeaFactor(long f) {
+		return f == 3 || f == 5 || f == 9;
+	}
+
+	// d:= src * factor with lea d,[src+src*(factor-1)]
+	private void scale(Reg64 d, Reg64 src, int factor) {
+		_asm.add(new Lea(new ModRMSIB(src, src, factor - 1, 0, d)));
+	}
+
+	// d:= left / imm, truncating like idiv. Powers of two shift after adding 2^k-1 to negative
+	//  dividends. Other divisors multiply by a fixed-point reciprocal and take the high half
+	//  (Hacker's Delight, chapter 10), which needs RAX and RDX.
+	private void divide(Reg64 d, Reg64 left, int imm) {
+		if (left == Reg64.RAX) {
+			// only a spilled operand arrives in RAX, keep it out of the way
+			move(Reg64.RCX, left);
+			left = Reg64.RCX;
+		}
+		long m = Math.abs((long) imm);
+		if (m == 1) {
+			move(d, left);
+		} else if ((m & (m - 1)) == 0) {
+			int k = Long.numberOfTrailingZeros(m);
+			move(Reg64.RAX, left);
+			_asm.add(new Sar(new ModRMSIB(Reg64.RAX, true), 63));
+			_asm.add(new Shr(new ModRMSIB(Reg64.RAX, true), 64 - k));
+			_asm.add(new Add(new ModRMSIB(Reg64.RAX, left)));
+			_asm.add(new Sar(new ModRMSIB(Reg64.RAX, true), k));
+			move(d, Reg64.RAX);
+		} else {
+			long[] magic = magic(imm);
+			if (magic[0] == (int) magic[0])
+				_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), (int) magic[0]));
+			else
+				_asm.add(new Mov_ri64(Reg64.RAX, magic[0]));
+			_asm.add(new Imul(new ModRMSIB(left, true))); // RDX:= high half of RAX * left
+			if (imm > 0 && magic[0] < 0)
+				_asm.add(new Add(new ModRMSIB(Reg64.RDX, left)));
+			else if (imm < 0 && magic[0] > 0)
+				_asm.add(new Sub(new ModRMSIB(Reg64.RDX, left)));
+			if (magic[1] > 0)
+				_asm.add(new Sar(new ModRMSIB(Reg64.RDX, true), (int) magic[1]));
+			// round towards zero: add one when the quotient is negative
+			_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, Reg64.RDX)));
+			_asm.add(new Shr(new ModRMSIB(Reg64.RAX, true), 63));
+			_asm.add(new Add(new ModRMSIB(Reg64.RDX, Reg64.RAX)));
+			move(d, Reg64.RDX);
+			return;
+		}
+		if (imm < 0)
+			_asm.add(new Neg(new ModRMSIB(d, true)));
+	}
+
+	// {multiplier, shift} for signed 64-bit division by d, |d| >= 2 (Hacker's Delight 10-1)
+	private static long[] magic(long d) {
+		final long two63 = Long.MIN_VALUE;
+		long ad = Math.abs(d);
+		long t = two63 + (d >>> 63);
+		long anc = t - 1 - Long.remainderUnsigned(t, ad);
+		int p = 63;
+		long q1 = Long.divideUnsigned(two63, anc);
+		long r1 = two63 - q1 * anc;
+		long q2 = Long.divideUnsigned(two63, ad);
+		long r2 = two63 - q2 * ad;
+		long delta;
+		do {
+			++p;
+			q1 *= 2;
+			r1 *= 2;
+			if (Long.compareUnsigned(r1, anc) >= 0) {
+				++q1;
+				r1 -= anc;
+			}
+			q2 *= 2;
+			r2 *= 2;
+			if (Long.compareUnsigned(r2, ad) >= 0) {
+				++q2;
+				r2 -= ad;
+			}
+			delta = ad - r2;
+		} while (Long.compareUnsigned(q1, delta) < 0 || (q1 == delta && r1 == 0));
+		long multiplier = q2 + 1;
+		return new long[] { d < 0 ? -multiplier : multiplier, p - 64 };
+	}
+
+	private static Condition condition(Opcode op) {
+		switch (op) {
+			case EQ: return Condition.E;
+			case NE: return Condition.NE;
+			case LT: return Condition.LT;
+			case LE: return Condition.LTE;
+			case GT: return Condition.GT;
+			default: return Condition.GTE;
+		}
+	}
+
+	// jumps to the block laid out next are left out
+	private void lowerExit(BasicBlock b, BasicBlock next) {
+		switch (b.exit) {
+			case JUMP:
+				if (b.target != next)
+					jumpTo(new Jmp(0), b.target.id);
+				break;
+			case BRANCH: {
+				Condition taken = Condition.NE;
+				if (b.compare != null) {
+					Reg64 left = use(b.cond, Reg64.RAX);
+					_asm.add(new Cmp(new ModRMSIB(left, use(b.right, Reg64.RCX))));
+					taken = condition(b.compare);
+				} else {
+					_asm.add(new Cmp(new ModRMSIB(use(b.cond, Reg64.RAX), true), 0));
+				}
+				if (b.elseTarget == next) {
+					jumpTo(new CondJmp(taken, 0), b.target.id);
+				} else {
+					jumpTo(new CondJmp(taken.opposite(), 0), b.elseTarget.id);
+					if (b.target != next)
+						jumpTo(new Jmp(0), b.target.id);
+				}
+				break;
+			}
+			case RETURN:
+				if (next != null)
+					jumpTo(new Jmp(0), -1);
+				break;
+		}
+	}
+
+	private void jumpTo(Instruction jump, int blockId) {
+		_branches.add(new int[] { _asm.add(jump), blockId });
+	}
+}
@@ -0,0 +1,165 @@
+package miniJava.CodeGeneration;
+
+import java.util.ArrayList;
+
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+// System.out.println without a syscall per value. print formats the value in decimal with a
+//  newline into a buffer in .bss, and the buffer is written out once a line leaves less room
+//  than the longest one needs, and when the program exits. The program ends through exit here,
+//  also when it stops on an error it checks for, a division by zero or an allocation that
+//  fails, so nothing printed is lost then. A fault nothing checks for, such as a null
+//  dereference or the most negative value divided by -1, loses what is still buffered.
+// print and flush keep every register but RAX, RCX and RDX.
+public class OutputBuffer {
+	private static final int SIZE = 4096;
+	private static final int LONGEST = 21; // "-9223372036854775808\n"
+
+	private InstructionList _asm;
+	private int _buffer; // .bss offsets
+	private int _used;
+	private ArrayList<Integer> _printCalls = new ArrayList<>();
+	private ArrayList<Integer> _flushCalls = new ArrayList<>();
+	private ArrayList<Integer> _failJumps = new ArrayList<>();
+
+	public OutputBuffer(InstructionList asm) {
+		this._asm = asm;
+		this._buffer = asm.allocateData(SIZE);
+		this._used = asm.allocateData(8);
+	}
+
+	private void data(Instruction ins, int offset) {
+		_asm.resolveData(_asm.add(ins), offset);
+	}
+
+	private static ModRMSIB rip(Reg64 r) {
+		return new ModRMSIB(Reg64.RIP, 0, r);
+	}
+
+	// println(value)
+	public void println(Reg64 value) {
+		if (value != Reg64.RAX)
+			_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, value)));
+		_printCalls.add(_asm.add(new Call(0)));
+	}
+
+	// writes out what is buffered and ends the program with status
+	public void exit(int status) {
+		_flushCalls.add(_asm.add(new Call(0)));
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 60));
+		if (status == 0)
+			_asm.add(new Xor(new ModRMSIB(Reg64.RDI, Reg64.RDI)));
+		else
+			_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDI, true), status));
+		_asm.add(new Syscall());
+	}
+
+	// ends the program with status 1 when c holds
+	public void failIf(Condition c) {
+		_failJumps.add(_asm.add(new CondJmp(c, 0)));
+	}
+
+	// Emits the routines, after the last instruction that may run. Called once, after every
+	//  println, exit and failIf.
+	public void emitRuntime() {
+		if (!_failJumps.isEmpty()) {
+			int fail = _asm.getNextIdx();
+			exit(1);
+			for (int jump : _failJumps)
+				_asm.resolveBranch(jump, fail);
+		}
+		if (!_printCalls.isEmpty()) {
+			int print = emitPrint();
+			for (int call : _printCalls)
+				_asm.resolveBranch(call, print);
+		}
+		if (!_flushCalls.isEmpty()) {
+			int flush = emitFlush();
+			for (int call : _flushCalls)
+				_asm.resolveBranch(call, flush);
+		}
+	}
+
+	// print: RAX is the value. The digits go below RSP from the newline back, then into the
+	//  buffer.
+	private int emitPrint() {
+		int print = _asm.getNextIdx();
+		_asm.add(new Push(Reg64.RSI));
+		_asm.add(new Push(Reg64.RDI));
+		_asm.add(new Sub(new ModRMSIB(Reg64.RSP, true), 24));
+		_asm.add(new Lea(new ModRMSIB(Reg64.RSP, 24, Reg64.RSI)));
+		_asm.add(new Sub(new ModRMSIB(Reg64.RSI, true), 1));
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDX, true), '\n'));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSI, 0, Reg8.DL)));
+
+		// the digits come from the value made negative, which the most negative value can be
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDI, Reg64.RAX)));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), 0));
+		int negative = _asm.add(new CondJmp(Condition.LT, 0));
+		_asm.add(new Neg(new ModRMSIB(Reg64.RAX, true)));
+		_asm.resolveBranch(negative, _asm.getNextIdx());
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RCX, true), 10));
+		int digit = _asm.add(new Cqo());
+		_asm.add(new Idiv(new ModRMSIB(Reg64.RCX, true))); // remainder in -9..0
+		_asm.add(new Neg(new ModRMSIB(Reg64.RDX, true)));
+		_asm.add(new Add(new ModRMSIB(Reg64.RDX, true), '0'));
+		_asm.add(new Sub(new ModRMSIB(Reg64.RSI, true), 1));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSI, 0, Reg8.DL)));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), 0));
+		_asm.resolveBranch(_asm.add(new CondJmp(Condition.NE, 0)), digit);
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RDI, true), 0));
+		int copy = _asm.add(new CondJmp(Condition.GTE, 0));
+		_asm.add(new Sub(new ModRMSIB(Reg64.RSI, true), 1));
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDX, true), '-'));
+		_asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSI, 0, Reg8.DL)));
+
+		_asm.resolveBranch(copy, _asm.getNextIdx());
+		_asm.add(new Lea(new ModRMSIB(Reg64.RSP, 24, Reg64.RCX)));
+		_asm.add(new Sub(new ModRMSIB(Reg64.RCX, Reg64.RSI)));
+		data(new Lea(rip(Reg64.RDI)), _buffer);
+		data(new Mov_rrm(rip(Reg64.RAX)), _used);
+		_asm.add(new Add(new ModRMSIB(Reg64.RDI, Reg64.RAX)));
+		_asm.add(new Add(new ModRMSIB(Reg64.RAX, Reg64.RCX)));
+		data(new Mov_rmr(rip(Reg64.RAX)), _used);
+		_asm.add(new RepMovsb());
+		_asm.add(new Add(new ModRMSIB(Reg64.RSP, true), 24));
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), SIZE - LONGEST));
+		int room = _asm.add(new CondJmp(Condition.LTE, 0));
+		_flushCalls.add(_asm.add(new Call(0)));
+		_asm.resolveBranch(room, _asm.getNextIdx());
+		_asm.add(new Pop(Reg64.RDI));
+		_asm.add(new Pop(Reg64.RSI));
+		_asm.add(new Ret());
+		return print;
+	}
+
+	// flush: writes the buffer to stdout, again after a short write. An error drops it.
+	private int emitFlush() {
+		int flush = _asm.getNextIdx();
+		data(new Mov_rrm(rip(Reg64.RDX)), _used);
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RDX, true), 0));
+		int empty = _asm.add(new CondJmp(Condition.E, 0));
+		_asm.add(new Push(Reg64.RSI));
+		_asm.add(new Push(Reg64.RDI));
+		_asm.add(new Push(Reg64.R11));
+		data(new Lea(rip(Reg64.RSI)), _buffer);
+		int write = _asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 1)); // write
+		_asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDI, true), 1)); // stdout
+		_asm.add(new Syscall());
+		_asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), 0));
+		int failed = _asm.add(new CondJmp(Condition.LTE, 0));
+		_asm.add(new Add(new ModRMSIB(Reg64.RSI, Reg64.RAX)));
+		_asm.add(new Sub(new ModRMSIB(Reg64.RDX, Reg64.RAX)));
+		_asm.resolveBranch(_asm.add(new CondJmp(Condition.GT, 0)), write);
+		_asm.resolveBranch(failed, _asm.getNextIdx());
+		_asm.add(new Xor(new ModRMSIB(Reg64.RDX, Reg64.RDX)));
+		data(new Mov_rmr(rip(Reg64.RDX)), _used);
+		_asm.add(new Pop(Reg64.R11));
+		_asm.add(new Pop(Reg64.RDI));
+		_asm.add(new Pop(Reg64.RSI));
+		_asm.resolveBranch(empty, _asm.getNextIdx());
+		_asm.add(new Ret());
+		return flush;
+	}
+}
@@ -0,0 +1,81 @@
+package miniJava.CodeGeneration.x64;
+
+import java.util.Arrays;
+
+// Growable byte array that instructions encode into, little endian like x64 itself.
+//  Unlike ByteArrayOutputStream it is not synchronized and bytes can be rewritten in place.
+public class CodeBuffer {
+	private byte[] _buf;
+	private int _size = 0;
+	
+	public CodeBuffer() {
+		this(16);
+	}
+	
+	public CodeBuffer(int capacity) {
+		_buf = new byte[Math.max(capacity, 1)];
+	}
+	
+	public int size() {
+		return _size;
+	}
+	
+	public void write(int b) {
+		if( _size == _buf.length )
+			_buf = Arrays.copyOf(_buf, _buf.length * 2);
+		_buf[_size++] = (byte)b;
+	}
+	
+	public void write(byte[] bArray, int off, int len) {
+		ensureCapacity(_size + len);
+		System.arraycopy(bArray, off, _buf, _size, len);
+		_size += len;
+	}
+	
+	// appends all of other
+	public void write(CodeBuffer other) {
+		write(other._buf, 0, other._size);
+	}
+	
+	public void write(CodeBuffer other, int off, int len) {
+		write(other._buf, off, len);
+	}
+	
+	public byte get(int pos) {
+		return _buf[pos];
+	}
+	
+	// overwrites 4 bytes at pos
+	public void putInt(int pos, int n) {
+		for( int i = 0; i < 4; ++i ) {
+			_buf[pos + i] = (byte)(n & 0xFF);
+			n >>= 8;
+		}
+	}
+	
+	public void putByte(int pos, int b) {
+		_buf[pos] = (byte)b;
+	}
+	
+	// replaces len bytes at pos with all of other, moving whatever follows
+	public void replace(int pos, int len, CodeBuffer other) {
+		int newEnd = pos + other._size;
+		ensureCapacity(_size - len + other._size);
+		System.arraycopy(_buf, pos + len, _buf, newEnd, _size - pos - len);
+		System.arraycopy(other._buf, 0, _buf, pos, other._size);
+		_size += other._size - len;
+	}
+	
+	public void clear() {
+		_size = 0;
+	}
+	
+	public byte[] toByteArray() {
+		return Arrays.copyOf(_buf, _size);
+	}
+	
+	private void ensureCapacity(int capacity) {
+		if( capacity > _buf.length )
+			_buf = Arrays.copyOf(_buf, Math.max(capacity, _buf.length * 2));
+	}
+}
@@ -23,6 +23,19 @@ public enum Condition {
 		return null;
 	}
 	
+	public Condition opposite() {
+		switch( this ) {
+		case E: return Condition.NE;
+		case NE: return Condition.E;
+		case LT: return Condition.GTE;
+		case LTE: return Condition.GT;
+		case GT: return Condition.LTE;
+		case GTE: return Condition.LT;
+		};
+		
+		return null;
+	}
+	
 	public static Condition getCond(Operator op) {
 		switch( op.spelling ) {
 		case ">": return Condition.GT;
@@ -8,19 +8,20 @@ public class Call extends Instruction {
 	public Call(int offset) {
 		opcodeBytes.write(0xE8);
 		x64.writeInt(immBytes,offset);
+		dispSize = 4;
 	}
 	
 	public Call(int curAddr, int destAddr) {
 		opcodeBytes.write(0xE8);
 		x64.writeInt(immBytes, destAddr - curAddr - 5);
+		dispSize = 4;
 	}
 	
 	public Call(ModRMSIB modrmsib) {
 		opcodeBytes.write(0xFF);
 		
 		modrmsib.SetRegR(x64.mod543ToReg(2));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		modrmsib.encodeTo(immBytes);
 	}
 }
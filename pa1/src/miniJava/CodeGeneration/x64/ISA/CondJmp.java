@@ -5,26 +5,40 @@ import miniJava.CodeGeneration.x64.Instruction;
 import miniJava.CodeGeneration.x64.x64;
 
 public class CondJmp extends Instruction {
+	private Condition _cond;
+	
 	public CondJmp(Condition cond, byte rel8) {
+		_cond = cond;
 		opcodeBytes.write(getImm32Opcode(cond) - 0x10);
 		immBytes.write(rel8);
+		dispSize = 1;
 	}
 	
 	public CondJmp(Condition cond, int rel32) {
+		_cond = cond;
 		opcodeBytes.write(0x0F);
 		opcodeBytes.write(getImm32Opcode(cond));
 		x64.writeInt(immBytes,rel32);
+		dispSize = 4;
 	}
 	
 	public CondJmp(Condition cond, int curAddr, int destAddr, boolean asByte) {
+		_cond = cond;
 		if( asByte ) {
 			opcodeBytes.write( getImm32Opcode(cond) - 0x10 );
 			immBytes.write( destAddr - curAddr - 2 );
+			dispSize = 1;
 			return;
 		}
 		opcodeBytes.write(0x0F);
 		opcodeBytes.write(getImm32Opcode(cond));
 		x64.writeInt(immBytes, destAddr - curAddr - 6);
+		dispSize = 4;
+	}
+	
+	@Override
+	public Instruction shortForm() {
+		return dispSize == 4 ? new CondJmp(_cond, (byte)0) : null;
 	}
 	
 	// imm32
@@ -12,8 +12,7 @@ public class Idiv extends Instruction {
 	public Idiv(ModRMSIB modrmsib) {
 		opcodeBytes.write(0xF7);
 		modrmsib.SetRegR(x64.mod543ToReg(7));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		modrmsib.encodeTo(immBytes);
 	}
 }
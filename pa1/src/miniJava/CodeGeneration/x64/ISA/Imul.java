@@ -10,9 +10,8 @@ public class Imul extends Instruction {
 	public Imul(ModRMSIB rm) {
 		rm.SetRegR(x64.mod543ToReg(5));
 		opcodeBytes.write(0xF7);
-		byte[] rmsib = rm.getBytes();
 		importREX(rm);
-		x64.writeBytes(immBytes,rmsib);
+		rm.encodeTo(immBytes);
 	}
 	
 	// imul r,rm, where r:= r * rm
@@ -20,17 +19,15 @@ public class Imul extends Instruction {
 		opcodeBytes.write(0x0F);
 		opcodeBytes.write(0xAF);
 		rm.SetRegR(r);
-		byte[] rmsib = rm.getBytes();
 		importREX(rm);
-		x64.writeBytes(immBytes,rmsib);
+		rm.encodeTo(immBytes);
 	}
 	
 	// imul r,rm,imm, where r:= rm * imm
 	public Imul(Reg r, ModRMSIB rm, int imm) {
 		rm.SetRegR(r);
-		byte[] rmsib = rm.getBytes();
 		importREX(rm);
-		x64.writeBytes(immBytes,rmsib);
+		rm.encodeTo(immBytes);
 		
 		if( x64.isOneByte(imm) ) {
 			opcodeBytes.write(0x6B);
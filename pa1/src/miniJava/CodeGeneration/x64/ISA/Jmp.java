@@ -10,21 +10,22 @@ public class Jmp extends Instruction {
 		opcodeBytes.write(0xFF);
 		
 		modrmsib.SetRegR(x64.mod543ToReg(4));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		modrmsib.encodeTo(immBytes);
 	}
 	
 	// jmp imm32 (offset from next instruction)
 	public Jmp(int offset) {
 		opcodeBytes.write(0xE9);
 		x64.writeInt(immBytes,offset);
+		dispSize = 4;
 	}
 	
 	// jmp imm8 (offset from next instruction)
 	public Jmp(byte offset) {
 		opcodeBytes.write(0xEB);
 		immBytes.write(offset);
+		dispSize = 1;
 	}
 	
 	// jmp imm8/32 (offset calculated)
@@ -32,9 +33,16 @@ public class Jmp extends Instruction {
 		if( asByte ) {
 			opcodeBytes.write(0xEB);
 			immBytes.write( destAddr - curAddr - 2 );
+			dispSize = 1;
 			return;
 		}
 		opcodeBytes.write(0xE9);
 		x64.writeInt(immBytes, destAddr - curAddr - 5);
+		dispSize = 4;
+	}
+	
+	@Override
+	public Instruction shortForm() {
+		return dispSize == 4 ? new Jmp((byte)0) : null;
 	}
 }
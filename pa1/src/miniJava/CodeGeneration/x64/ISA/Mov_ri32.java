@@ -0,0 +1,14 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.Reg64;
+import miniJava.CodeGeneration.x64.x64;
+
+public class Mov_ri32 extends Instruction {
+	// mov r32,imm32 variant, clears the upper half of the 64-bit register
+	public Mov_ri32(Reg64 reg, int imm32) {
+		rexB = (reg.getIdx() >= 8);
+		opcodeBytes.write( 0xB8 + x64.getIdx(reg) );
+		x64.writeInt(immBytes,imm32);
+	}
+}
@@ -7,9 +7,14 @@ import miniJava.CodeGeneration.x64.x64;
 public class Mov_rmr extends Instruction {
 	// rm,r variants
 	public Mov_rmr(ModRMSIB modrmsib) {
-		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
+		if( modrmsib.IsRegR_R8() ) {
+			// mov rm8, r8
+			opcodeBytes.write(0x88);
+			modrmsib.encodeTo(immBytes);
+			return;
+		}
 		opcodeBytes.write(0x89);
-		x64.writeBytes(immBytes,modrmsibBytes);
+		modrmsib.encodeTo(immBytes);
 	}
 }
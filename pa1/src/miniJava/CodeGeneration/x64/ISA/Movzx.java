@@ -0,0 +1,14 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.ModRMSIB;
+
+public class Movzx extends Instruction {
+	// movzx r,rm8, the byte at rm zero-extended into r
+	public Movzx(ModRMSIB modrmsib) {
+		importREX(modrmsib);
+		opcodeBytes.write(0x0F);
+		opcodeBytes.write(0xB6);
+		modrmsib.encodeTo(immBytes);
+	}
+}
@@ -7,17 +7,16 @@ import miniJava.CodeGeneration.x64.x64;
 
 public class Pop extends Instruction {
 	public Pop(Reg64 r) {
-		// TODO: first, check if the Reg64 is R8-R15, if it is, set one of rexB,rexW,rexR,rexX to true (which one?)
-		// TODO: second, find the opcode for pop r, where r is a plain 64-bit register
-		// NOTE: x64.getIdx(r) will return a 0-7 index, whereas r.getIdx() returns an index from 0-15
+		// no need to set rexW, pop is always r64, R8-R15 only need rexB
+		if( r.getIdx() > 7 )
+			rexB = true;
 		opcodeBytes.write( 0x58 + x64.getIdx(r) );
 	}
 	
 	public Pop(ModRMSIB modrmsib) {
 		opcodeBytes.write(0x8F);
 		modrmsib.SetRegR(x64.mod543ToReg(0));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		modrmsib.encodeTo(immBytes);
 	}
 }
@@ -24,8 +24,7 @@ public class Push extends Instruction {
 		opcodeBytes.write(0xFF);
 		
 		modrmsib.SetRegR(x64.mod543ToReg(6));
-		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
-		x64.writeBytes(immBytes,rmsib);
+		modrmsib.encodeTo(immBytes);
 	}
 }
@@ -0,0 +1,11 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+
+public class RepMovsb extends Instruction {
+	// copy RCX bytes from [RSI] to [RDI], both move forward
+	public RepMovsb() {
+		opcodeBytes.write(0xF3);
+		opcodeBytes.write(0xA4);
+	}
+}
@@ -0,0 +1,13 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+
+public class RepMovsq extends Instruction {
+	// copy RCX qwords from [RSI] to [RDI], both move forward
+	public RepMovsq() {
+		// the rep prefix goes before REX, so REX.W is written by hand
+		opcodeBytes.write(0xF3);
+		opcodeBytes.write(0x48);
+		opcodeBytes.write(0xA5);
+	}
+}
@@ -0,0 +1,13 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+
+public class RepStosq extends Instruction {
+	// store RAX into RCX qwords from [RDI] on
+	public RepStosq() {
+		// the rep prefix goes before REX, so REX.W is written by hand
+		opcodeBytes.write(0xF3);
+		opcodeBytes.write(0x48);
+		opcodeBytes.write(0xAB);
+	}
+}
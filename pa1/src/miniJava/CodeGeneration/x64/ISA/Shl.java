@@ -0,0 +1,16 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.ModRMSIB;
+import miniJava.CodeGeneration.x64.x64;
+
+public class Shl extends Instruction {
+	// rm:= rm << imm
+	public Shl(ModRMSIB modrmsib, int imm) {
+		opcodeBytes.write(0xC1);
+		modrmsib.SetRegR(x64.mod543ToReg(4));
+		importREX(modrmsib);
+		modrmsib.encodeTo(immBytes);
+		immBytes.write(imm);
+	}
+}
@@ -14,25 +14,23 @@ public abstract class SimpleMathInstruction extends Instruction {
 	
 	// rm,r variants
 	public SimpleMathInstruction(ModRMSIB modrmsib) {
-		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
 		opcodeBytes.write(_RegRegOpcode.get(_thisOp()));
-		x64.writeBytes(immBytes,modrmsibBytes);
+		modrmsib.encodeTo(immBytes);
 	}
 	
 	// do we have an immediate afterwards?
 	public SimpleMathInstruction(ModRMSIB modrmsib, int imm) {
 		//rexW = true;
 		modrmsib.SetRegR(x64.mod543ToReg(_thisOp().idx));
-		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
 		if( x64.isOneByte(imm) ) {
 			opcodeBytes.write(0x83);
-			x64.writeBytes(immBytes,modrmsibBytes);
+			modrmsib.encodeTo(immBytes);
 			immBytes.write(imm);
 		} else {
 			opcodeBytes.write(0x81);
-			x64.writeBytes(immBytes,modrmsibBytes);
+			modrmsib.encodeTo(immBytes);
 			x64.writeInt(immBytes,imm);
 		}
 	}
@@ -1,42 +1,120 @@
 package miniJava.CodeGeneration.x64;
 
-import java.io.ByteArrayOutputStream;
-
+// Constructors write the opcode and operand bytes into opcodeBytes and immBytes, which borrow
+//  staging buffers kept per thread, so building an instruction allocates nothing for its bytes.
+//  Adding it to an InstructionList encodes it once and freezes it: from then on its bytes are its
+//  slice of the list's buffer, they only change through the list (resolveBranch, patch), and the
+//  staging buffers go to the next instruction. An instruction replaced by patch keeps a copy of
+//  its last bytes and no longer follows the list.
 public abstract class Instruction {
-	protected ByteArrayOutputStream opcodeBytes = new ByteArrayOutputStream();
-	protected ByteArrayOutputStream immBytes = new ByteArrayOutputStream();
+	protected CodeBuffer opcodeBytes;
+	protected CodeBuffer immBytes;
 	protected boolean rexW = false;
 	protected boolean rexR = false;
 	protected boolean rexX = false;
 	protected boolean rexB = false;
+	// size of the pc-relative displacement at the end of the encoding, 0 when there is none
+	protected int dispSize = 0;
 	public int startAddress;
 	public int listIdx;
-	private int _size = -1;
 	
-	// caching could be done better here, instructions are "kinda" immutable
+	private CodeBuffer _frozenIn = null; // holds the bytes once frozen
+	private int _frozenAt;
+	private int _frozenSize;
+	
+	private static final ThreadLocal<Staging> STAGING = ThreadLocal.withInitial(Staging::new);
+	
+	protected Instruction() {
+		Staging s = STAGING.get();
+		// an instruction built but not added yet keeps its bytes
+		if( s.owner != null )
+			s.owner.copyOutOfStaging();
+		s.opcode.clear();
+		s.imm.clear();
+		s.owner = this;
+		opcodeBytes = s.opcode;
+		immBytes = s.imm;
+	}
+	
 	public int size() {
-		if( _size == -1 )
-			_size = getBytes().length;
-		return _size;
+		if( isFrozen() )
+			return _frozenSize;
+		return (hasRex() ? 1 : 0) + opcodeBytes.size() + immBytes.size();
+	}
+	
+	public int getDispSize() {
+		return dispSize;
+	}
+	
+	// the same branch with a rel8 displacement, null if there is no shorter form
+	public Instruction shortForm() {
+		return null;
+	}
+	
+	public boolean isFrozen() {
+		return _frozenIn != null;
+	}
+	
+	// appends the encoded instruction to b
+	public void encodeTo(CodeBuffer b) {
+		if( isFrozen() ) {
+			b.write(_frozenIn, _frozenAt, _frozenSize);
+			return;
+		}
+		if( hasRex() )
+			b.write(getRex());
+		b.write(opcodeBytes);
+		b.write(immBytes);
 	}
 	
 	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-		Byte rex = getRex();
-		if( rex != null )
-			b.write(rex);
-		if( opcodeBytes.size() > 0 )
-			x64.writeBytes(b, opcodeBytes.toByteArray());
-		if( immBytes.size() > 0 )
-			x64.writeBytes(b, immBytes.toByteArray() );
-		byte[] retBytes = b.toByteArray();
-		_size = retBytes.length;
-		return retBytes;
-	}
-	
-	private Byte getRex() {
-		if( !( rexW || rexX || rexB || rexR ) )
-			return null;
+		CodeBuffer b = new CodeBuffer(size());
+		encodeTo(b);
+		return b.toByteArray();
+	}
+	
+	// the bytes were just encoded into code at offset, they are the instruction from now on
+	void freeze(CodeBuffer code, int offset) {
+		_frozenSize = size();
+		_frozenIn = code;
+		_frozenAt = offset;
+		Staging s = STAGING.get();
+		if( s.owner == this )
+			s.owner = null;
+		opcodeBytes = null;
+		immBytes = null;
+	}
+	
+	// code before this instruction grew or shrank by delta bytes
+	void shift(int delta) {
+		startAddress += delta;
+		_frozenAt += delta;
+	}
+	
+	// invalidated by patch, keep the last bytes apart from the list
+	void detach() {
+		CodeBuffer own = new CodeBuffer(_frozenSize);
+		own.write(_frozenIn, _frozenAt, _frozenSize);
+		_frozenIn = own;
+		_frozenAt = 0;
+	}
+	
+	private void copyOutOfStaging() {
+		if( isFrozen() )
+			return;
+		CodeBuffer opcode = new CodeBuffer(opcodeBytes.size());
+		opcode.write(opcodeBytes);
+		CodeBuffer imm = new CodeBuffer(immBytes.size());
+		imm.write(immBytes);
+		opcodeBytes = opcode;
+		immBytes = imm;
+	}
+	
+	private boolean hasRex() {
+		return rexW || rexX || rexB || rexR;
+	}
+	
+	private byte getRex() {
 		return (byte)((4 << 4) | (rexW ? 1 << 3 : 0) | (rexR ? 1 << 2 : 0) | (rexX ? 1 << 1 : 0) | (rexB ? 1 : 0));
 	}
 	
@@ -46,4 +124,10 @@ public abstract class Instruction {
 		rexX = rexX || rm64.getRexX();
 		rexB = rexB || rm64.getRexB();
 	}
+	
+	private static class Staging {
+		CodeBuffer opcode = new CodeBuffer(4);
+		CodeBuffer imm = new CodeBuffer(16);
+		Instruction owner = null;
+	}
 }
@@ -1,25 +1,42 @@
 package miniJava.CodeGeneration.x64;
 
 import java.util.List;
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 
+// Instructions are encoded into one buffer as they are added, that buffer is the program.
+//  Jumps whose target is only known later are added with a placeholder displacement and
+//  resolved with resolveBranch, which keeps a relocation record so the displacement is
+//  rewritten whenever patch moves code around.
+// The .bss section follows the code, its bytes are handed out with allocateData. An
+//  instruction addressing them [rip+disp32] is recorded with resolveData, and its
+//  displacement is filled in once the size of the code is final, when the bytes are read.
 public class InstructionList {
 	private List<Instruction> _instructions = new ArrayList<Instruction>();
-	private int _currentSize = 0;
+	private List<Relocation> _relocations = new ArrayList<Relocation>();
+	private List<Relocation> _dataReferences = new ArrayList<Relocation>(); // targetIdx is the .bss offset
+	private int _dataSize = 0;
+	private CodeBuffer _code = new CodeBuffer(1 << 12);
+	private CodeBuffer _scratch = new CodeBuffer();
 	private int _currentIdx = 0;
 	private int _markStart = -1;
 	
 	public int getSize() {
-		return _currentSize;
+		return _code.size();
+	}
+	
+	// index the next added instruction will get
+	public int getNextIdx() {
+		return _currentIdx;
 	}
 	
 	public int add(Instruction ins) {
-		ins.startAddress = _currentSize;
+		ins.startAddress = _code.size();
 		ins.listIdx = _currentIdx;
 		_instructions.add(ins);
 		_currentIdx++;
-		_currentSize += ins.size();
+		ins.encodeTo(_code);
+		ins.freeze(_code, ins.startAddress);
 		return ins.listIdx;
 	}
 	
@@ -27,6 +44,36 @@ public class InstructionList {
 		return _instructions.get(idx);
 	}
 	
+	// start of instruction idx, getNextIdx() is the end of the code
+	public int addressOf(int idx) {
+		return idx == _currentIdx ? _code.size() : _instructions.get(idx).startAddress;
+	}
+	
+	// Points the jump or call at branchIdx to the instruction at targetIdx, which may be
+	//  getNextIdx() to reach whatever is added next
+	public void resolveBranch(int branchIdx, int targetIdx) {
+		Relocation r = new Relocation(branchIdx, targetIdx);
+		_relocations.add(r);
+		apply(r);
+	}
+	
+	// reserves bytes in .bss, which start out zero, and returns their offset
+	public int allocateData(int bytes) {
+		int offset = _dataSize;
+		_dataSize += bytes;
+		return offset;
+	}
+	
+	public int getDataSize() {
+		return _dataSize;
+	}
+	
+	// The instruction at idx ends with the disp32 of a [rip+disp32] operand, which is to
+	//  address the .bss bytes at offset. Operands followed by an immediate cannot be resolved.
+	public void resolveData(int idx, int offset) {
+		_dataReferences.add(new Relocation(idx, offset));
+	}
+	
 	public void markOutputStart() {
 		_markStart = _currentIdx;
 	}
@@ -34,11 +81,11 @@ public class InstructionList {
 	public void outputFromMark() {
 		if( _markStart < 0 ) return;
 		
+		applyData();
 		for( int i = _markStart; i < _currentIdx; ++i ) {
 			Instruction ins = _instructions.get(i);
-			byte[] barr = ins.getBytes();
 			//System.out.printf( "%04X %s\t", ins.startAddress, ins.getClass().getSimpleName() );
-			renderBytes(barr);
+			renderBytes(ins.startAddress, ins.size());
 			System.out.println();
 		}
 		
@@ -47,28 +94,202 @@ public class InstructionList {
 	
 	public void patch(int idx, Instruction newIns) {
 		Instruction old = _instructions.get(idx);
-		int newLen = newIns.size();
 		int oldLen = old.size();
-		if( oldLen != newLen ) {
-			// very dangerous, maybe even worth reporting
-			_currentSize += newLen - oldLen;
-		}
+		_scratch.clear();
+		newIns.encodeTo(_scratch);
+		old.detach();
+		_code.replace(old.startAddress, oldLen, _scratch);
 		newIns.startAddress = old.startAddress;
 		newIns.listIdx = idx;
+		newIns.freeze(_code, newIns.startAddress);
 		_instructions.set(idx, newIns);
+		
+		// the new instruction carries its own displacement
+		_relocations.removeIf(r -> r.branchIdx == idx);
+		int delta = _scratch.size() - oldLen;
+		if( delta != 0 ) {
+			// recorded branches are rewritten, displacements computed by hand across this point are now off
+			for( int i = idx + 1; i < _currentIdx; ++i )
+				_instructions.get(i).shift(delta);
+			for( Relocation r : _relocations )
+				apply(r);
+		}
 	}
 	
-	public byte[] getBytes() {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
+	// Branch relaxation: every branch starts out with a rel32 displacement. Each round switches
+	//  all branches whose target fits in rel8 to their short form, lays the code out again and
+	//  re-resolves the relocations. Shortening code never moves a target further away, so the
+	//  rounds stop once nothing changes and no branch has to grow back.
+	// Returns the bytes saved. Nothing is done if some displacement was computed by hand rather
+	//  than recorded through resolveBranch, since moving code would silently break it.
+	public int relaxBranches() {
+		if( hasUnrecordedDisplacement() )
+			return 0;
 		
-		for( Instruction op : _instructions )
-			x64.writeBytes(b, op.getBytes());
+		int before = _code.size();
+		Instruction[] shorter = new Instruction[_currentIdx];
+		boolean changed = true;
+		while( changed ) {
+			changed = false;
+			for( Relocation r : _relocations ) {
+				Instruction branch = _instructions.get(r.branchIdx);
+				Instruction s = branch.shortForm();
+				if( s == null || shorter[r.branchIdx] != null )
+					continue;
+				int target = addressOf(r.targetIdx);
+				int end = branch.startAddress + s.size();
+				// a forward target moves back by the bytes this branch saves
+				if( target > branch.startAddress )
+					target -= branch.size() - s.size();
+				if( x64.isOneByte(target - end) ) {
+					shorter[r.branchIdx] = s;
+					changed = true;
+				}
+			}
+			if( changed )
+				relayout(shorter);
+		}
+		return before - _code.size();
+	}
+	
+	// some pc-relative displacement was computed by hand, so code must not move
+	boolean hasUnrecordedDisplacement() {
+		boolean[] relocated = new boolean[_currentIdx];
+		for( Relocation r : _relocations )
+			relocated[r.branchIdx] = true;
+		for( int i = 0; i < _currentIdx; ++i ) {
+			if( _instructions.get(i).getDispSize() != 0 && !relocated[i] )
+				return true;
+		}
+		return false;
+	}
+	
+	// byte at address as an unsigned value
+	int byteAt(int address) {
+		return _code.get(address) & 0xFF;
+	}
+	
+	int intAt(int address) {
+		return byteAt(address) | byteAt(address + 1) << 8 | byteAt(address + 2) << 16 | byteAt(address + 3) << 24;
+	}
+	
+	// target index of the branch recorded at each index, or -1
+	int[] branchTargetsBySource() {
+		int[] targets = new int[_currentIdx];
+		Arrays.fill(targets, -1);
+		for( Relocation r : _relocations )
+			targets[r.branchIdx] = r.targetIdx;
+		return targets;
+	}
+	
+	// which instructions some recorded branch jumps to
+	boolean[] branchTargets() {
+		boolean[] targets = new boolean[_currentIdx + 1];
+		for( Relocation r : _relocations )
+			targets[r.targetIdx] = true;
+		return targets;
+	}
+	
+	// Replaces instruction i with replacement[i], or removes it when that is null, and lays the
+	//  code out again. Indices shift down past removed instructions: a branch aimed at one now
+	//  reaches the instruction after it, and a removed branch loses its relocation.
+	void rewrite(Instruction[] replacement) {
+		int[] newIdx = new int[_currentIdx + 1];
+		List<Instruction> kept = new ArrayList<Instruction>(_currentIdx);
+		for( int i = 0; i < _currentIdx; ++i ) {
+			newIdx[i] = kept.size();
+			if( replacement[i] != null )
+				kept.add(replacement[i]);
+		}
+		newIdx[_currentIdx] = kept.size();
 		
-		return b.toByteArray();
+		List<Relocation> relocations = new ArrayList<Relocation>(_relocations.size());
+		for( Relocation r : _relocations ) {
+			if( replacement[r.branchIdx] != null )
+				relocations.add(new Relocation(newIdx[r.branchIdx], newIdx[r.targetIdx]));
+		}
+		List<Relocation> dataReferences = new ArrayList<Relocation>(_dataReferences.size());
+		for( Relocation r : _dataReferences ) {
+			if( replacement[r.branchIdx] != null )
+				dataReferences.add(new Relocation(newIdx[r.branchIdx], r.targetIdx));
+		}
+		if( _markStart >= 0 )
+			_markStart = newIdx[_markStart];
+		_instructions = kept;
+		_relocations = relocations;
+		_dataReferences = dataReferences;
+		_currentIdx = kept.size();
+		relayout(new Instruction[_currentIdx]);
+	}
+	
+	// encodes every instruction again into a fresh buffer, swapping in the shorter branches
+	private void relayout(Instruction[] shorter) {
+		CodeBuffer code = new CodeBuffer(_code.size());
+		for( int i = 0; i < _currentIdx; ++i ) {
+			Instruction ins = _instructions.get(i);
+			if( shorter[i] != null && shorter[i] != ins ) {
+				ins = shorter[i];
+				_instructions.set(i, ins);
+			}
+			ins.listIdx = i;
+			ins.startAddress = code.size();
+			ins.encodeTo(code);
+			ins.freeze(code, ins.startAddress);
+		}
+		_code = code;
+		for( Relocation r : _relocations )
+			apply(r);
+	}
+	
+	public byte[] getBytes() {
+		applyData();
+		return _code.toByteArray();
+	}
+	
+	// .bss starts right after the code as it is now
+	private void applyData() {
+		for( Relocation r : _dataReferences ) {
+			Instruction ins = _instructions.get(r.branchIdx);
+			int end = ins.startAddress + ins.size();
+			_code.putInt(end - 4, _code.size() + r.targetIdx - end);
+		}
+	}
+	
+	private void apply(Relocation r) {
+		Instruction branch = _instructions.get(r.branchIdx);
+		int dispSize = branch.getDispSize();
+		int end = branch.startAddress + branch.size();
+		int disp = addressOf(r.targetIdx) - end;
+		if( dispSize == 4 ) {
+			_code.putInt(end - 4, disp);
+		} else if( dispSize == 1 && x64.isOneByte(disp) ) {
+			_code.putByte(end - 1, disp);
+		} else if( dispSize == 1 ) {
+			throw new IllegalStateException("Branch at " + branch.startAddress + " cannot reach " + addressOf(r.targetIdx) + " with rel8");
+		} else {
+			throw new IllegalArgumentException(branch.getClass().getSimpleName() + " has no displacement to resolve");
+		}
 	}
 	
-	private void renderBytes(byte[] bArray) {
-		for( int i = 0; i < bArray.length; ++i )
-			System.out.printf("%02X ", bArray[i]);
+	private void renderBytes(int start, int len) {
+		// same text as printf("%02X ") per byte, without a Formatter per byte
+		StringBuilder sb = new StringBuilder(len * 3);
+		for( int i = start; i < start + len; ++i ) {
+			int b = _code.get(i) & 0xFF;
+			sb.append(HEX[b >> 4]).append(HEX[b & 0xF]).append(' ');
+		}
+		System.out.print(sb);
+	}
+	
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	
+	private static class Relocation {
+		final int branchIdx;
+		final int targetIdx;
+		
+		Relocation(int branchIdx, int targetIdx) {
+			this.branchIdx = branchIdx;
+			this.targetIdx = targetIdx;
+		}
 	}
 }
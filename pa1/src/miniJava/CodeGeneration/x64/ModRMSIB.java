@@ -1,9 +1,7 @@
 package miniJava.CodeGeneration.x64;
 
-import java.io.ByteArrayOutputStream;
-
 public class ModRMSIB {
-	private ByteArrayOutputStream _b;
+	private CodeBuffer _b;
 	private boolean rexW = false;
 	private boolean rexR = false;
 	private boolean rexX = false;
@@ -26,7 +24,14 @@ public class ModRMSIB {
 	}
 	
 	public byte[] getBytes() {
-		_b = new ByteArrayOutputStream();
+		CodeBuffer b = new CodeBuffer(8);
+		encodeTo(b);
+		return b.toByteArray();
+	}
+	
+	// appends the ModRM, SIB and displacement bytes to b, and sets the REX flags
+	public void encodeTo(CodeBuffer b) {
+		_b = b;
 		// construct
 		if( rdisp != null && ridx != null && r != null )
 			Make(rdisp,ridx,mult,disp,r);
@@ -39,8 +44,7 @@ public class ModRMSIB {
 		else if( r != null )
 			Make(disp,r);
 		else throw new IllegalArgumentException("Cannot determine ModRMSIB");
-		
-		return _b.toByteArray();
+		_b = null;
 	}
 	
 	private Reg64 rdisp = null, ridx = null;
@@ -159,12 +163,19 @@ public class ModRMSIB {
 	private void Make(Reg64 rdisp, int disp, Reg r) {
 		// TODO: construct the byte and write to _b
 		// Operands: [rdisp+disp],r
+		if( rdisp == Reg64.RIP ) {
+			// mod 0 with rm 5 is [rip+disp32], relative to the end of the instruction
+			_b.write( ( getIdx(r) << 3 ) | 5 );
+			x64.writeInt(_b, disp);
+			return;
+		}
 		int mod;
 		mod = 2;
 		int regByte = ( mod << 6 ) | ( getIdx(r) << 3 ) | getIdx(rdisp);
 		_b.write(regByte);
-		if (rdisp == Reg64.RSP) {
-			regByte = ( 0 << 6 ) | ( getIdx(rdisp) << 3 ) | getIdx(rdisp);
+		if (rdisp == Reg64.RSP || rdisp == Reg64.R12) {
+			// rm 4 means a SIB byte follows, index 4 is none
+			regByte = ( 0 << 6 ) | ( getIdx(Reg64.RSP) << 3 ) | getIdx(rdisp);
 			_b.write(regByte);
 		}
 		x64.writeInt(_b, disp);
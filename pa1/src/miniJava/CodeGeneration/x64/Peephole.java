@@ -0,0 +1,215 @@
+package miniJava.CodeGeneration.x64;
+
+import java.util.EnumSet;
+
+import miniJava.CodeGeneration.x64.ISA.CondJmp;
+import miniJava.CodeGeneration.x64.ISA.Jmp;
+import miniJava.CodeGeneration.x64.ISA.Mov_ri32;
+import miniJava.CodeGeneration.x64.ISA.Mov_rmr;
+
+// Rewrites short windows of an InstructionList that the code generators leave behind. The
+//  instructions are recognized by their encoding, so a rule only needs to know the few forms
+//  it looks for. A window of two never spans a branch target, since control can arrive at the
+//  second instruction without passing through the first.
+// Passes repeat until nothing changes, because a removal can bring a new pair together. The
+//  list does the relocation: branches are retargeted and addresses recomputed after each pass.
+public class Peephole {
+	public enum Rule {
+		PUSH_POP,	// push r; pop r goes, push a; pop b becomes mov b,a
+		STORE_LOAD,	// mov [rbp+d],a; mov b,[rbp+d] loses the load, or moves a into b
+		SELF_MOVE,	// mov r,r
+		JUMP_NEXT,	// a jump to the instruction right after it
+		MOV_IMM32	// mov r64,imm32 with imm32 >= 0 as mov r32,imm32, which zero-extends
+	}
+	
+	private EnumSet<Rule> _rules;
+	private int[] _saved = new int[Rule.values().length];
+	private int[] _applied = new int[Rule.values().length];
+	
+	public Peephole() {
+		this(EnumSet.allOf(Rule.class));
+	}
+	
+	public Peephole(EnumSet<Rule> rules) {
+		this._rules = rules;
+	}
+	
+	// returns the bytes saved, nothing is done if some displacement was computed by hand
+	public int optimize(InstructionList asm) {
+		if( asm.hasUnrecordedDisplacement() )
+			return 0;
+		int before = asm.getSize();
+		while( pass(asm) )
+			;
+		return before - asm.getSize();
+	}
+	
+	public int bytesSaved() {
+		int total = 0;
+		for( int s : _saved )
+			total += s;
+		return total;
+	}
+	
+	public int bytesSaved(Rule rule) {
+		return _saved[rule.ordinal()];
+	}
+	
+	// how many times rule rewrote something
+	public int applied(Rule rule) {
+		return _applied[rule.ordinal()];
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("peephole: ").append(bytesSaved()).append(" bytes saved");
+		for( Rule rule : _rules ) {
+			sb.append(", ").append(rule.name().toLowerCase().replace('_', '-')).append(' ')
+				.append(applied(rule)).append('x').append(' ').append(bytesSaved(rule)).append('B');
+		}
+		return sb.toString();
+	}
+	
+	private boolean pass(InstructionList asm) {
+		int n = asm.getNextIdx();
+		boolean[] targets = asm.branchTargets();
+		int[] jumps = asm.branchTargetsBySource();
+		Instruction[] replacement = new Instruction[n];
+		boolean changed = false;
+		for( int i = 0; i < n; ++i )
+			replacement[i] = asm.get(i);
+		
+		for( int i = 0; i < n; ++i ) {
+			Instruction ins = asm.get(i);
+			if( _rules.contains(Rule.JUMP_NEXT) && jumps[i] == i + 1
+					&& (ins instanceof Jmp || ins instanceof CondJmp) ) {
+				changed |= apply(Rule.JUMP_NEXT, replacement, i, null);
+				continue;
+			}
+			int moved = Math.max(regToReg(asm, ins, MovForm.RM_R), regToReg(asm, ins, MovForm.R_RM));
+			if( _rules.contains(Rule.SELF_MOVE) && moved >= 0 && (moved >> 4) == (moved & 0xF) ) {
+				changed |= apply(Rule.SELF_MOVE, replacement, i, null);
+				continue;
+			}
+			int loadedImm = movImm32(asm, ins);
+			int imm = loadedImm >= 0 ? asm.intAt(ins.startAddress + 3) : -1;
+			if( _rules.contains(Rule.MOV_IMM32) && loadedImm >= 0 && imm >= 0 ) {
+				changed |= apply(Rule.MOV_IMM32, replacement, i, new Mov_ri32(reg(loadedImm), imm));
+				continue;
+			}
+			if( i + 1 == n || targets[i + 1] )
+				continue;
+			
+			Instruction next = asm.get(i + 1);
+			int pushed = single(asm, ins, 0x50);
+			int popped = single(asm, next, 0x58);
+			if( _rules.contains(Rule.PUSH_POP) && pushed >= 0 && popped >= 0 ) {
+				changed |= apply(Rule.PUSH_POP, replacement, i, null, move(popped, pushed));
+				++i;
+				continue;
+			}
+			int stored = rbpSlot(asm, ins, MovForm.RM_R);
+			int loaded = rbpSlot(asm, next, MovForm.R_RM);
+			if( _rules.contains(Rule.STORE_LOAD) && stored >= 0 && loaded >= 0
+					&& asm.intAt(ins.startAddress + 3) == asm.intAt(next.startAddress + 3) ) {
+				changed |= apply(Rule.STORE_LOAD, replacement, i + 1, move(loaded, stored));
+				++i;
+			}
+		}
+		if( changed )
+			asm.rewrite(replacement);
+		return changed;
+	}
+	
+	// replacement may be null to remove the instruction, counts what the rule saved
+	private boolean apply(Rule rule, Instruction[] replacement, int i, Instruction with) {
+		_saved[rule.ordinal()] += replace(replacement, i, with);
+		++_applied[rule.ordinal()];
+		return true;
+	}
+	
+	// the same for the window at i and i + 1
+	private boolean apply(Rule rule, Instruction[] replacement, int i, Instruction first, Instruction second) {
+		_saved[rule.ordinal()] += replace(replacement, i, first) + replace(replacement, i + 1, second);
+		++_applied[rule.ordinal()];
+		return true;
+	}
+	
+	private static int replace(Instruction[] replacement, int i, Instruction with) {
+		int saved = replacement[i].size() - (with == null ? 0 : with.size());
+		replacement[i] = with;
+		return saved;
+	}
+	
+	// mov to,from, or nothing when they are the same register
+	private static Instruction move(int to, int from) {
+		return to == from ? null : new Mov_rmr(new ModRMSIB(reg(to), reg(from)));
+	}
+	
+	private static Reg64 reg(int idx) {
+		return (Reg64) Reg64.RegFromIdx(idx & 7, idx > 7);
+	}
+	
+	private enum MovForm {
+		RM_R(0x89),
+		R_RM(0x8B);
+		
+		final int code;
+		private MovForm(int code) {
+			this.code = code;
+		}
+	}
+	
+	// register of push r / pop r encoded as base+r, or -1
+	private static int single(InstructionList asm, Instruction ins, int base) {
+		int at = ins.startAddress;
+		int b0 = asm.byteAt(at);
+		if( ins.size() == 1 && b0 >= base && b0 < base + 8 )
+			return b0 - base;
+		if( ins.size() == 2 && b0 == 0x41 ) {
+			int b1 = asm.byteAt(at + 1);
+			if( b1 >= base && b1 < base + 8 )
+				return 8 + b1 - base;
+		}
+		return -1;
+	}
+	
+	// REX.W op rm,r with both operands registers as r << 4 | rm, or -1
+	private static int regToReg(InstructionList asm, Instruction ins, MovForm op) {
+		int at = ins.startAddress;
+		int rex = asm.byteAt(at);
+		if( ins.size() != 3 || (rex & 0xFA) != 0x48 || asm.byteAt(at + 1) != op.code )
+			return -1;
+		int modrm = asm.byteAt(at + 2);
+		if( modrm >> 6 != 3 )
+			return -1;
+		int r = ((modrm >> 3) & 7) + ((rex & 4) != 0 ? 8 : 0);
+		int rm = (modrm & 7) + ((rex & 1) != 0 ? 8 : 0);
+		return r << 4 | rm;
+	}
+	
+	// register r of REX.W op [rbp+disp32],r, the displacement follows at +3, or -1
+	private static int rbpSlot(InstructionList asm, Instruction ins, MovForm op) {
+		int at = ins.startAddress;
+		int rex = asm.byteAt(at);
+		if( ins.size() != 7 || (rex & 0xFB) != 0x48 || asm.byteAt(at + 1) != op.code )
+			return -1;
+		int modrm = asm.byteAt(at + 2);
+		if( modrm >> 6 != 2 || (modrm & 7) != 5 )
+			return -1;
+		return ((modrm >> 3) & 7) + ((rex & 4) != 0 ? 8 : 0);
+	}
+	
+	// register of mov r64,imm32 (REX.W C7 /0), the immediate follows at +3, or -1
+	private static int movImm32(InstructionList asm, Instruction ins) {
+		int at = ins.startAddress;
+		int rex = asm.byteAt(at);
+		if( ins.size() != 7 || (rex & 0xFE) != 0x48 || asm.byteAt(at + 1) != 0xC7 )
+			return -1;
+		int modrm = asm.byteAt(at + 2);
+		if( (modrm & 0xF8) != 0xC0 )
+			return -1;
+		return (modrm & 7) + ((rex & 1) != 0 ? 8 : 0);
+	}
+}
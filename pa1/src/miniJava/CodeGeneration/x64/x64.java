@@ -67,4 +67,30 @@ public class x64 {
 			b.write( (int)s.charAt(i) );
 		b.write(0);
 	}
+	
+	public static void writeShort(CodeBuffer b, int n) {
+		for( int i = 0; i < 2; ++i ) {
+			b.write( n & 0xFF );
+			n >>= 8;
+		}
+	}
+	
+	public static void writeInt(CodeBuffer b, int n) {
+		for( int i = 0; i < 4; ++i ) {
+			b.write( n & 0xFF );
+			n >>= 8;
+		}
+	}
+	
+	public static void writeLong(CodeBuffer b, long n) {
+		for( int i = 0; i < 8; ++i ) {
+			b.write( (int)(n & 0xFF) );
+			n >>= 8;
+		}
+	}
+	
+	public static void writeBytes(CodeBuffer b, byte[] bArray) {
+		if( bArray == null ) return;
+		b.write(bArray, 0, bArray.length);
+	}
 }
@@ -0,0 +1,238 @@
+package miniJava;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import miniJava.AbstractSyntaxTrees.ASTCache;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.ClassDeclList;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.CodeGeneration.ConstantFolding;
+import miniJava.ContextualAnalysis.ClassCache;
+import miniJava.ContextualAnalysis.Identification;
+import miniJava.ContextualAnalysis.TypeChecking;
+import miniJava.IR.ClassLayout;
+import miniJava.SyntacticAnalyzer.Parser;
+import miniJava.SyntacticAnalyzer.Scanner;
+
+// Runs the compiler phases in order: lexing, parsing, identification, type checking,
+//  code generation and ELF emission. Callers can stop after any phase or start from
+//  an already parsed AST. A pipeline only holds its settings, each run gets its own
+//  ErrorReporter, so one pipeline can serve several threads as long as the timer
+//  is not shared.
+// Several source files are lexed and parsed in parallel and then checked and
+//  generated as one program.
+public class CompilationPipeline {
+	private CompilerPhase _stopAfter = CompilerPhase.ELF_EMISSION;
+	private String _outputFile = "a.out";
+	private PhaseTimer _timer = new PhaseTimer(false);
+	private ForkJoinPool _pool = ForkJoinPool.commonPool();
+	private Path _cacheFile = null;
+	private ASTCache _astCache = null;
+	
+	public void stopAfter(CompilerPhase phase) {
+		this._stopAfter = phase;
+	}
+	
+	public void setOutputFile(String outputFile) {
+		this._outputFile = outputFile;
+	}
+	
+	public void setTimer(PhaseTimer timer) {
+		this._timer = timer;
+	}
+	
+	public void setPool(ForkJoinPool pool) {
+		this._pool = pool;
+	}
+	
+	// Classes recorded in this file as already checked skip identification and type checking
+	public void setCacheFile(Path cacheFile) {
+		this._cacheFile = cacheFile;
+	}
+	
+	// Parsed trees are kept in this directory and loaded instead of parsing an unchanged file again
+	public void setAstCacheDir(Path astCacheDir) {
+		this._astCache = astCacheDir == null ? null : new ASTCache(astCacheDir);
+	}
+	
+	public CompilationResult compile(Path sourceFile) throws IOException {
+		ErrorReporter errors = new ErrorReporter();
+		return afterParse(parse(sourceFile, errors, _timer), errors);
+	}
+	
+	public CompilationResult compile(Scanner scanner, ErrorReporter errors) {
+		return afterParse(parse(scanner, errors, _timer), errors);
+	}
+	
+	private CompilationResult afterParse(Package prog, ErrorReporter errors) {
+		if (_stopAfter == CompilerPhase.LEXING)
+			return new CompilationResult(errors, null, CompilerPhase.LEXING, null);
+		if (prog == null || _stopAfter == CompilerPhase.PARSING)
+			return new CompilationResult(errors, prog, CompilerPhase.PARSING, null);
+		
+		return resume(prog, errors);
+	}
+	
+	// Lexes and parses every file on the pool, then merges their classes into one
+	//  Package in the order the files were given. Errors keep that order as well.
+	//  The time the files take together is measured here, as elapsed on this thread.
+	public CompilationResult compile(List<Path> sourceFiles) throws IOException {
+		if (sourceFiles.size() == 1)
+			return compile(sourceFiles.get(0));
+		
+		long started = System.nanoTime();
+		List<ForkJoinTask<ParsedFile>> tasks = new ArrayList<>();
+		for (Path sourceFile : sourceFiles) {
+			tasks.add(_pool.submit(() -> {
+				ParsedFile parsed = new ParsedFile(_timer.isEnabled());
+				try {
+					parsed.prog = parse(sourceFile, parsed.errors, parsed.timer);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return parsed;
+			}));
+		}
+		
+		List<ParsedFile> files = new ArrayList<>();
+		for (ForkJoinTask<ParsedFile> task : tasks) {
+			try {
+				files.add(task.join());
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+		List<PhaseTimer> timers = new ArrayList<>();
+		for (ParsedFile file : files)
+			timers.add(file.timer);
+		_timer.addParallel(timers, System.nanoTime() - started);
+		
+		ErrorReporter errors = new ErrorReporter();
+		ClassDeclList classes = new ClassDeclList();
+		boolean parsed = true;
+		for (ParsedFile file : files) {
+			errors.addAll(file.errors);
+			if (file.prog == null) {
+				parsed = false;
+				continue;
+			}
+			for (ClassDecl cd : file.prog.classDeclList)
+				classes.add(cd);
+		}
+		
+		if (_stopAfter == CompilerPhase.LEXING)
+			return new CompilationResult(errors, null, CompilerPhase.LEXING, null);
+		Package prog = parsed ? new Package(classes, null) : null;
+		if (prog == null || _stopAfter == CompilerPhase.PARSING)
+			return new CompilationResult(errors, prog, CompilerPhase.PARSING, null);
+		
+		return resume(prog, errors);
+	}
+	
+	// Goes through the AST cache when there is one. A hit is counted as parsing.
+	private Package parse(Path sourceFile, ErrorReporter errors, PhaseTimer timer) throws IOException {
+		if (_astCache == null || _stopAfter == CompilerPhase.LEXING)
+			return parse(new Scanner(sourceFile, errors), errors, timer);
+		
+		timer.start(CompilerPhase.PARSING);
+		byte[] source = Files.readAllBytes(sourceFile);
+		Package prog = _astCache.load(source);
+		timer.stop(CompilerPhase.PARSING);
+		if (prog != null)
+			return prog;
+		
+		prog = parse(new Scanner(ByteBuffer.wrap(source), errors), errors, timer);
+		if (prog != null && !errors.hasErrors()) {
+			try {
+				_astCache.store(source, prog);
+			} catch (IOException e) {
+				// the next run parses again
+			}
+		}
+		return prog;
+	}
+	
+	// returns null when stopping after lexing or on a syntax error
+	private Package parse(Scanner scanner, ErrorReporter errors, PhaseTimer timer) {
+		if (timer.isEnabled() || _stopAfter == CompilerPhase.LEXING) {
+			timer.start(CompilerPhase.LEXING);
+			scanner.prefetch();
+			timer.stop(CompilerPhase.LEXING);
+		}
+		if (_stopAfter == CompilerPhase.LEXING)
+			return null;
+		
+		timer.start(CompilerPhase.PARSING);
+		Package prog = new Parser(scanner, errors).parse();
+		timer.stop(CompilerPhase.PARSING);
+		return prog;
+	}
+	
+	// runs everything after parsing on an existing AST
+	public CompilationResult resume(Package prog, ErrorReporter errors) {
+		ClassCache cache = _cacheFile == null ? null : new ClassCache(_cacheFile);
+		Set<ClassDecl> skipped = cache == null ? Collections.emptySet() : cache.findValidated(prog);
+		
+		_timer.start(CompilerPhase.IDENTIFICATION);
+		Identification identification = new Identification(errors);
+		identification.setSkippedClasses(skipped);
+		identification.parse(prog);
+		_timer.stop(CompilerPhase.IDENTIFICATION);
+		if (_stopAfter == CompilerPhase.IDENTIFICATION)
+			return new CompilationResult(errors, prog, CompilerPhase.IDENTIFICATION, null);
+		
+		_timer.start(CompilerPhase.TYPE_CHECKING);
+		TypeChecking typeChecking = new TypeChecking(errors);
+		typeChecking.setSkippedClasses(skipped);
+		typeChecking.parse(prog);
+		_timer.stop(CompilerPhase.TYPE_CHECKING);
+		if (cache != null && !errors.hasErrors()) {
+			cache.recordValidated(prog);
+			try {
+				cache.save();
+			} catch (IOException e) {
+				// the cache only saves time, the next run checks everything again
+			}
+		}
+		// code generation expects a checked tree, and its errors would only add noise
+		if (_stopAfter == CompilerPhase.TYPE_CHECKING || errors.hasErrors())
+			return new CompilationResult(errors, prog, CompilerPhase.TYPE_CHECKING, null);
+		
+		_timer.start(CompilerPhase.CODE_GENERATION);
+		// once, here, so generate leaves the tree it is given alone
+		new ConstantFolding().fold(prog);
+		Map<ClassDecl, ClassLayout> layouts = ClassLayout.of(prog);
+		CodeGenerator codeGenerator = new CodeGenerator(errors);
+		codeGenerator.generate(prog, layouts);
+		_timer.stop(CompilerPhase.CODE_GENERATION);
+		if (_stopAfter == CompilerPhase.CODE_GENERATION || errors.hasErrors())
+			return new CompilationResult(errors, prog, CompilerPhase.CODE_GENERATION, null);
+		
+		_timer.start(CompilerPhase.ELF_EMISSION);
+		codeGenerator.makeElf(_outputFile);
+		_timer.stop(CompilerPhase.ELF_EMISSION);
+		return new CompilationResult(errors, prog, CompilerPhase.ELF_EMISSION, _outputFile);
+	}
+	
+	private static class ParsedFile {
+		ErrorReporter errors = new ErrorReporter();
+		PhaseTimer timer;
+		Package prog;
+		
+		ParsedFile(boolean timed) {
+			this.timer = new PhaseTimer(timed);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package miniJava;
+
+import miniJava.AbstractSyntaxTrees.Package;
+
+// What a CompilationPipeline run produced. ast is null when parsing failed or
+//  did not run, outputFile is null unless an ELF was written.
+public class CompilationResult {
+	public final ErrorReporter errors;
+	public final Package ast;
+	public final CompilerPhase lastPhase;
+	public final String outputFile;
+	
+	public CompilationResult(ErrorReporter errors, Package ast, CompilerPhase lastPhase, String outputFile) {
+		this.errors = errors;
+		this.ast = ast;
+		this.lastPhase = lastPhase;
+		this.outputFile = outputFile;
+	}
+	
+	public boolean hasErrors() {
+		return errors.hasErrors();
+	}
+}
@@ -1,45 +1,48 @@
 package miniJava;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 
-import miniJava.SyntacticAnalyzer.Parser;
-import miniJava.SyntacticAnalyzer.Scanner;
-import miniJava.SyntacticAnalyzer.Token;
-import miniJava.AbstractSyntaxTrees.Package;
 import miniJava.AbstractSyntaxTrees.*;
 
 public class Compiler {
-	// Main function, the file to compile will be an argument.
+	// Main function, the files to compile will be the arguments.
+	//  Several files are compiled together as one program, see CompilerOptions for the flags.
 	public static void main(String[] args) throws IOException {
-		// TODO: Instantiate the ErrorReporter object
-		ErrorReporter reporter = new ErrorReporter();
+		CompilerOptions options = CompilerOptions.parse(args);
+		if (options.server) {
+			new CompilerServer().run(System.in, System.out);
+			return;
+		}
 		// TODO: Check to make sure a file path is given in args
-		if (args.length == 0) {
+		if (options.sourceFiles.isEmpty()) {
 			System.out.println("Error");
 			return;
 		}
-		// TODO: Create the inputStream using new FileInputStream
-		FileInputStream inputStream = new FileInputStream(args[0]);
-		// TODO: Instantiate the scanner with the input stream and error object
-		Scanner scanner = new Scanner(inputStream, reporter);
-
-		// TODO: Instantiate the parser with the scanner and error object
-		Parser parser = new Parser(scanner, reporter);
-		// TODO: Call the parser's parse function
-		AST abstractSyntaxTree = parser.parse();
+		compile(options, System.out, System.err);
+	}
+	
+	// Runs one compile and prints the outcome
+	public static CompilationResult compile(CompilerOptions options, PrintStream out, PrintStream timing) throws IOException {
+		PhaseTimer timer = new PhaseTimer(options.time);
+		// TODO: Run every phase on the source files
+		CompilationResult result = options.makePipeline(timer).compile(options.sourceFiles);
+		ErrorReporter reporter = result.errors;
+		AST abstractSyntaxTree = result.ast;
 		ASTDisplay display = new ASTDisplay();
 		// TODO: Check if any errors exist, if so, println("Error")
 		//  then output the errors
 		if (reporter.hasErrors()) {
 			//display.showTree(abstractSyntaxTree);
-			System.out.println("Error");
-			reporter.outputErrors();
+			out.println("Error");
+			reporter.outputErrors(out);
 		}
 		// TODO: If there are no errors, println("Success")
 		else {
 			//display.showTree(abstractSyntaxTree);
-			System.out.println("Success");
+			out.println("Success");
 		}
+		timer.report(timing, options.timeJson);
+		return result;
 	}
 }
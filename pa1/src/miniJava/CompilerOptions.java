@@ -0,0 +1,63 @@
+package miniJava;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Command line settings, shared by Compiler.main and the server's requests.
+//  -o <file>        name of the ELF to write, a.out by default
+//  -Xtime           report time and allocation per phase
+//  -Xtime:json      the same report as JSON
+//  -Xcache=<file>   skip checking the classes this file records as unchanged and clean
+//  -Xastcache=<dir> keep parsed trees in dir and load them for files that have not changed
+//  -Xserver         stay resident and read compile requests from stdin
+// Every other argument is a source file.
+public class CompilerOptions {
+	public List<Path> sourceFiles = new ArrayList<>();
+	public String outputFile = "a.out";
+	public Path cacheFile = null;
+	public Path astCacheDir = null;
+	public boolean time = false;
+	public boolean timeJson = false;
+	public boolean server = false;
+	
+	public static CompilerOptions parse(String[] args) {
+		CompilerOptions options = new CompilerOptions();
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if (arg.equals("-Xtime")) {
+				options.time = true;
+			}
+			else if (arg.equals("-Xtime:json")) {
+				options.time = true;
+				options.timeJson = true;
+			}
+			else if (arg.startsWith("-Xcache=")) {
+				options.cacheFile = Paths.get(arg.substring("-Xcache=".length()));
+			}
+			else if (arg.startsWith("-Xastcache=")) {
+				options.astCacheDir = Paths.get(arg.substring("-Xastcache=".length()));
+			}
+			else if (arg.equals("-Xserver")) {
+				options.server = true;
+			}
+			else if (arg.equals("-o") && i + 1 < args.length) {
+				options.outputFile = args[++i];
+			}
+			else {
+				options.sourceFiles.add(Paths.get(arg));
+			}
+		}
+		return options;
+	}
+	
+	public CompilationPipeline makePipeline(PhaseTimer timer) {
+		CompilationPipeline pipeline = new CompilationPipeline();
+		pipeline.setOutputFile(outputFile);
+		pipeline.setTimer(timer);
+		pipeline.setCacheFile(cacheFile);
+		pipeline.setAstCacheDir(astCacheDir);
+		return pipeline;
+	}
+}
@@ -0,0 +1,15 @@
+package miniJava;
+
+public enum CompilerPhase {
+	LEXING("lexing"),
+	PARSING("parsing"),
+	IDENTIFICATION("identification"),
+	TYPE_CHECKING("type checking"),
+	CODE_GENERATION("code generation"),
+	ELF_EMISSION("elf emission");
+	
+	public final String displayName;
+	private CompilerPhase(String displayName) {
+		this.displayName = displayName;
+	}
+}
@@ -0,0 +1,101 @@
+package miniJava;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Keeps one JVM resident so that a build pays class loading and JIT warm-up once instead of per compile.
+// Requests are read from stdin, one per line, with the same arguments as the command line (split on whitespace).
+//  The reply is "Success" or "Error", then the diagnostics and any -Xtime report, then "Output <path>" with the
+//  absolute path of the ELF when one was written, then a line holding only END.
+//  "ready" is printed once the warm-up compile is done, an empty line is ignored and "quit" or end of input stops the server.
+public class CompilerServer {
+	public static final String READY = "ready";
+	public static final String END = "END";
+	public static final String QUIT = "quit";
+	
+	// Small program that goes through every phase, compiled a few times before the first request
+	private static final String WARMUP_SOURCE =
+			"class A { int x; int f(int a) { int b = a + 1; if (b > 2) { b = b * 3; } return b; } }\n" +
+			"class Main { public static void main(String[] args) { int i = 3; if (i < 5) { System.out.println(i); } } }\n";
+	private static final int WARMUP_ROUNDS = 20;
+	
+	private int _requests = 0;
+	
+	public void run(InputStream in, PrintStream protocol) throws IOException {
+		// The code generator lists instructions on System.out, keep that away from the replies
+		PrintStream stdout = System.out;
+		System.setOut(System.err);
+		try {
+			warmUp();
+			protocol.println(READY);
+			protocol.flush();
+			
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				if (line.equals(QUIT)) {
+					break;
+				}
+				handle(line.split("\\s+"), protocol);
+				protocol.println(END);
+				protocol.flush();
+			}
+		} finally {
+			System.setOut(stdout);
+		}
+	}
+	
+	public int getRequestCount() {
+		return _requests;
+	}
+	
+	private void handle(String[] args, PrintStream protocol) {
+		++_requests;
+		CompilerOptions options = CompilerOptions.parse(args);
+		if (options.server || options.sourceFiles.isEmpty()) {
+			protocol.println("Error");
+			protocol.println("*** Server Error: expected source files, got \"" + String.join(" ", args) + "\"");
+			return;
+		}
+		try {
+			CompilationResult result = Compiler.compile(options, protocol, protocol);
+			if (!result.errors.hasErrors() && result.outputFile != null)
+				protocol.println("Output " + Path.of(result.outputFile).toAbsolutePath());
+		} catch (IOException e) {
+			protocol.println("Error");
+			protocol.println("*** Server Error: " + e);
+		} catch (VirtualMachineError e) {
+			throw e;
+		} catch (Throwable e) {
+			// A crash inside one compile must not take the server down with it
+			protocol.println("Error");
+			protocol.println("*** Server Error: " + e);
+		}
+	}
+	
+	private void warmUp() throws IOException {
+		Path source = Files.createTempFile("miniJava-warmup", ".java");
+		Path output = Files.createTempFile("miniJava-warmup", ".out");
+		try {
+			Files.write(source, WARMUP_SOURCE.getBytes(StandardCharsets.US_ASCII));
+			CompilationPipeline pipeline = new CompilationPipeline();
+			pipeline.setOutputFile(output.toString());
+			for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+				pipeline.compile(source);
+			}
+		} finally {
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(output);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package miniJava.ContextualAnalysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+
+// Remembers which classes already passed identification and type checking so an unchanged
+//  class is not checked again. A class's key combines the hash of its own tokens with a hash
+//  of every class's signatures (names, field types, method headers), since that is all a class
+//  can see of the others. Editing a method body only re-checks that class, editing a signature
+//  re-checks them all.
+// Only programs that checked without errors are recorded. Neither phase decorates the AST,
+//  so skipping a class leaves nothing missing for code generation.
+public class ClassCache {
+	private static final int MAGIC = 0x6d4a6363; // "mJcc"
+	private static final int VERSION = 1;
+
+	private Path _file;
+	private Set<Long> _validated = new HashSet<>();
+
+	// A missing or unreadable file is an empty cache
+	public ClassCache(Path file) {
+		this._file = file;
+		if (!Files.isRegularFile(file))
+			return;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return;
+			int count = in.readInt();
+			for (int i = 0; i < count; ++i)
+				_validated.add(in.readLong());
+		} catch (IOException e) {
+			_validated.clear();
+		}
+	}
+
+	// the classes of prog that checked cleanly last time with the same inputs
+	public Set<ClassDecl> findValidated(Package prog) {
+		long signatures = signatureHash(prog);
+		Set<ClassDecl> skip = new HashSet<>();
+		for (ClassDecl cd : prog.classDeclList) {
+			if (_validated.contains(classKey(cd, signatures)))
+				skip.add(cd);
+		}
+		return skip;
+	}
+
+	// Replaces the entries with the classes of prog, so edits do not pile up stale keys
+	public void recordValidated(Package prog) {
+		long signatures = signatureHash(prog);
+		_validated.clear();
+		for (ClassDecl cd : prog.classDeclList)
+			_validated.add(classKey(cd, signatures));
+	}
+
+	public void save() throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(_file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(_validated.size());
+			for (long key : _validated)
+				out.writeLong(key);
+		}
+	}
+
+	private static long classKey(ClassDecl cd, long signatures) {
+		return mix(cd.contentHash * 31 + signatures);
+	}
+
+	private static long signatureHash(Package prog) {
+		long h = 17;
+		for (ClassDecl cd : prog.classDeclList) {
+			h = h * 31 + cd.name.hashCode();
+			for (FieldDecl fd : cd.fieldDeclList)
+				h = h * 31 + memberHash(fd);
+			for (MethodDecl md : cd.methodDeclList) {
+				h = h * 31 + memberHash(md);
+				for (ParameterDecl pd : md.parameterDeclList)
+					h = h * 31 + typeHash(pd.type);
+			}
+		}
+		return mix(h);
+	}
+
+	private static long memberHash(MemberDecl md) {
+		long h = md.name.hashCode();
+		h = h * 31 + (md.isPrivate ? 1 : 0);
+		h = h * 31 + (md.isStatic ? 1 : 0);
+		return h * 31 + typeHash(md.type);
+	}
+
+	private static long typeHash(TypeDenoter type) {
+		long h = type.typeKind.ordinal();
+		if (type instanceof ClassType)
+			h = h * 31 + ((ClassType) type).className.spelling.hashCode();
+		else if (type instanceof ArrayType)
+			h = h * 31 + typeHash(((ArrayType) type).eltType);
+		return h;
+	}
+
+	// spread the bits before the key is used on its own
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -1,6 +1,8 @@
 package miniJava.ContextualAnalysis;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Stack;
 
 import miniJava.ErrorReporter;
@@ -11,6 +13,7 @@ import miniJava.AbstractSyntaxTrees.*;
 
 public class Identification implements Visitor<Object,Object> {
 	private ErrorReporter _errors;
+	private Set<ClassDecl> _skipped = new HashSet<>();
 	private Stack<HashMap<String,Declaration>> idTable = new Stack<>();
 	private MethodDecl currMethodDecl = null;
 	private String currVar = null;
@@ -22,6 +25,11 @@ public class Identification implements Visitor<Object,Object> {
 		this._errors = errors;
 	}
 
+	// classes that checked cleanly before and have not changed since, see ClassCache
+	public void setSkippedClasses(Set<ClassDecl> skipped) {
+		this._skipped = skipped;
+	}
+	
 	public void parse( Package prog ) {
 		try {
 			visitPackage(prog,null);
@@ -98,6 +106,9 @@ public class Identification implements Visitor<Object,Object> {
 			}
 		}
 		for(ClassDecl c : prog.classDeclList) {
+			if (_skipped.contains(c)) {
+				continue;
+			}
 			this.currentClass = c;
 			c.visit(this, arg);
 		}
@@ -1,6 +1,8 @@
 package miniJava.ContextualAnalysis;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Stack;
 
 import miniJava.ErrorReporter;
@@ -11,6 +13,7 @@ import miniJava.SyntacticAnalyzer.TokenType;
 
 public class TypeChecking implements Visitor<Object, TypeDenoter> {
 	private ErrorReporter _errors;
+	private Set<ClassDecl> _skipped = new HashSet<>();
 	private Stack<HashMap<String,Declaration>> idTable = new Stack<>();
 	private MethodDecl currMethodDecl = null;
 	private String currentClass = null;
@@ -24,6 +27,11 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
 		this._errors = errors;
 	}
 	
+	// classes that checked cleanly before and have not changed since, see ClassCache
+	public void setSkippedClasses(Set<ClassDecl> skipped) {
+		this._skipped = skipped;
+	}
+	
 	public void parse(Package prog) {
 		prog.visit(this, null);
 	}
@@ -55,6 +63,9 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
 			l0.put(c.name, c);
 		}
 		for(ClassDecl c : prog.classDeclList) {
+			if (_skipped.contains(c)) {
+				continue;
+			}
 			this.currentClass = c.name;
 			c.visit(this, arg);
 		}
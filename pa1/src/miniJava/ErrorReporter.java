@@ -1,5 +1,6 @@
 package miniJava;
 
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -20,12 +21,21 @@ public class ErrorReporter {
 	}
 	
 	public void outputErrors() {
+		outputErrors(System.out);
+	}
+	
+	public void outputErrors(PrintStream out) {
 		// TODO: output all errors in the errorQueue
 		for (String e: this._errorQueue) {
-			System.out.println(e);
+			out.println(e);
 		}
 	}
 	
+	// appends every error of another reporter, in order
+	public void addAll(ErrorReporter other) {
+		this._errorQueue.addAll(other._errorQueue);
+	}
+	
 	public void reportError(String ...error) {
 		StringBuilder sb = new StringBuilder();
 		
@@ -0,0 +1,109 @@
+package miniJava.IR;
+
+import java.util.Arrays;
+
+// Straight-line instructions followed by one way out. Instructions are packed four ints
+//  apiece (op, dst, a, b) into a single array, so a pass over a block walks memory in order
+//  and a block of n instructions is one allocation, not n.
+public class BasicBlock {
+	private static final Opcode[] OPCODES = Opcode.values();
+	private static final int WIDTH = 4;
+	
+	public enum Exit {
+		JUMP,	// to target
+		BRANCH,	// to target when cond != 0, or cond compare right, else to elseTarget
+		RETURN	// leave the method
+	}
+	
+	public final int id;
+	private int[] _code = new int[WIDTH * 8];
+	private int _size;
+	
+	public Exit exit = Exit.RETURN;
+	public int cond = -1;
+	public Opcode compare; // a comparison opcode when the branch tests cond against right
+	public int right = -1;
+	public BasicBlock target;
+	public BasicBlock elseTarget;
+	
+	BasicBlock(int id) {
+		this.id = id;
+	}
+	
+	public int size() {
+		return _size;
+	}
+	
+	public void add(Opcode op, int dst, int a, int b) {
+		if (_size * WIDTH == _code.length)
+			_code = Arrays.copyOf(_code, _code.length * 2);
+		set(_size++, op, dst, a, b);
+	}
+	
+	// passes rewrite instructions in place
+	public void set(int i, Opcode op, int dst, int a, int b) {
+		int at = i * WIDTH;
+		_code[at] = op.ordinal();
+		_code[at + 1] = dst;
+		_code[at + 2] = a;
+		_code[at + 3] = b;
+	}
+	
+	public void remove(int i) {
+		System.arraycopy(_code, (i + 1) * WIDTH, _code, i * WIDTH, (_size - i - 1) * WIDTH);
+		--_size;
+	}
+	
+	public Opcode op(int i) {
+		return OPCODES[_code[i * WIDTH]];
+	}
+	
+	public int dst(int i) {
+		return _code[i * WIDTH + 1];
+	}
+	
+	public int a(int i) {
+		return _code[i * WIDTH + 2];
+	}
+	
+	public int b(int i) {
+		return _code[i * WIDTH + 3];
+	}
+	
+	public void jump(BasicBlock to) {
+		this.exit = Exit.JUMP;
+		this.cond = -1;
+		this.compare = null;
+		this.right = -1;
+		this.target = to;
+		this.elseTarget = null;
+	}
+	
+	public void branch(int cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+		this.exit = Exit.BRANCH;
+		this.cond = cond;
+		this.compare = null;
+		this.right = -1;
+		this.target = ifTrue;
+		this.elseTarget = ifFalse;
+	}
+	
+	// branches on left compare right without materializing the comparison as 0 or 1
+	public void branch(Opcode compare, int left, int right, BasicBlock ifTrue, BasicBlock ifFalse) {
+		this.exit = Exit.BRANCH;
+		this.cond = left;
+		this.compare = compare;
+		this.right = right;
+		this.target = ifTrue;
+		this.elseTarget = ifFalse;
+	}
+	
+	public void ret() {
+		this.exit = Exit.RETURN;
+		this.cond = -1;
+		this.compare = null;
+		this.right = -1;
+		this.target = null;
+		this.elseTarget = null;
+	}
+}
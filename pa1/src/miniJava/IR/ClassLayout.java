@@ -0,0 +1,75 @@
+package miniJava.IR;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+
+// Where the instance fields of a class sit in its objects. The pipeline makes one per class
+//  with of, once checking is done, and code generation only looks them up, so a field access
+//  is an offset. Offsets count from the object reference, which points at the header word.
+// The fields holding references come first, a word each, because the collector takes the
+//  first fields the header counts as its references. The other word-sized fields follow, and
+//  then the booleans, a byte apiece, since a boolean is only ever 0 or 1. Nothing is wider
+//  than what comes before it, so every field is aligned, and the end is padded to a word.
+public class ClassLayout {
+	public static final int HEADER = 8;
+
+	private HashMap<FieldDecl, Integer> _offsets = new HashMap<>();
+	private int _words;
+	private int _references;
+
+	// the layout of every class in prog
+	public static Map<ClassDecl, ClassLayout> of(Package prog) {
+		Map<ClassDecl, ClassLayout> layouts = new HashMap<>();
+		for (ClassDecl cd : prog.classDeclList)
+			layouts.put(cd, new ClassLayout(cd));
+		return layouts;
+	}
+
+	public ClassLayout(ClassDecl cd) {
+		int offset = HEADER;
+		for (FieldDecl fd : cd.fieldDeclList) {
+			if (!fd.isStatic && isReference(fd.type)) {
+				_offsets.put(fd, offset);
+				offset += 8;
+				++_references;
+			}
+		}
+		for (FieldDecl fd : cd.fieldDeclList) {
+			if (!fd.isStatic && !isReference(fd.type) && !isByte(fd)) {
+				_offsets.put(fd, offset);
+				offset += 8;
+			}
+		}
+		for (FieldDecl fd : cd.fieldDeclList) {
+			if (!fd.isStatic && isByte(fd))
+				_offsets.put(fd, offset++);
+		}
+		_words = (offset - HEADER + 7) / 8;
+	}
+
+	private static boolean isReference(TypeDenoter type) {
+		return type.typeKind == TypeKind.CLASS || type.typeKind == TypeKind.ARRAY;
+	}
+
+	// whether fd is a single byte, to be read zero-extended
+	public boolean isByte(FieldDecl fd) {
+		return fd.type.typeKind == TypeKind.BOOLEAN;
+	}
+
+	public int offset(FieldDecl fd) {
+		return _offsets.get(fd);
+	}
+
+	// the size of an object after its header
+	public int words() {
+		return _words;
+	}
+
+	// how many of the first words hold references
+	public int references() {
+		return _references;
+	}
+}
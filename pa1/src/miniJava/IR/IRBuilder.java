@@ -0,0 +1,503 @@
+package miniJava.IR;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import miniJava.ErrorReporter;
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+
+// Turns the statements of a type-checked method into an IRFunction. Expressions return
+//  the virtual register holding their value, every intermediate result gets a fresh one
+//  apart from && and ||, which are control flow and define theirs once per outcome.
+//  Locals stay in frame slots and are read and written with LOAD and STORE, static fields
+//  stay in .bss and are read and written with GETSTATIC and PUTSTATIC, and instance fields
+//  at the offsets the ClassLayout of their class gives.
+public class IRBuilder implements Visitor<Object, Object> {
+	private ErrorReporter _errors;
+	private Map<String, ClassDecl> _classes;
+	private Map<FieldDecl, Integer> _statics;
+	private Map<ClassDecl, ClassLayout> _layouts;
+	private ClassDecl _class;
+	private IRFunction _f;
+	private BasicBlock _current;
+	private HashMap<String, Integer> _localSlots;
+	private HashMap<String, TypeDenoter> _localTypes;
+	private ExprList _arguments;
+
+	// classes by name, for the fields references name, the .bss offset of each static field
+	//  and the layout of each class
+	public IRBuilder(ErrorReporter errors, Map<String, ClassDecl> classes, Map<FieldDecl, Integer> statics,
+			Map<ClassDecl, ClassLayout> layouts) {
+		this._errors = errors;
+		this._classes = classes;
+		this._statics = statics;
+		this._layouts = layouts;
+	}
+
+	// null when the method uses something the IR cannot express yet, which is reported
+	public IRFunction build(MethodDecl md) {
+		_f = new IRFunction(md.name);
+		_class = _classes.get(md.classn);
+		_localSlots = new HashMap<>();
+		_localTypes = new HashMap<>();
+		try {
+			md.visit(this, null);
+		} catch (IRBuildError e) {
+			_errors.reportError(e.toString());
+			return null;
+		}
+		return _f;
+	}
+
+	class IRBuildError extends Error {
+		private static final long serialVersionUID = -441346906191470192L;
+		private String _errMsg;
+
+		public IRBuildError(AST ast, String errMsg) {
+			super();
+			this._errMsg = ast.posn == null
+				? "*** " + errMsg
+				: "*** " + ast.posn.toString() + ": " + errMsg;
+		}
+
+		@Override
+		public String toString() {
+			return _errMsg;
+		}
+	}
+
+	// continues emitting into b, which goes next in the layout
+	private void startBlock(BasicBlock b) {
+		_f.place(b);
+		_current = b;
+	}
+
+	private int emit(Opcode op, int a, int b) {
+		int dst = _f.newVReg();
+		_current.add(op, dst, a, b);
+		return dst;
+	}
+
+	private int value(Expression expr) {
+		return (Integer) expr.visit(this, null);
+	}
+
+	private static boolean isReference(TypeDenoter type) {
+		return type.typeKind == TypeKind.CLASS || type.typeKind == TypeKind.ARRAY;
+	}
+
+	private int localSlot(Reference ref) {
+		if (ref instanceof IdRef) {
+			Integer slot = _localSlots.get(((IdRef) ref).id.spelling);
+			if (slot != null)
+				return slot;
+		}
+		throw new IRBuildError(ref, "Only local variables are supported yet");
+	}
+
+	// the static field ref names, x in the method's own class or C.x, or null. Locals hide
+	//  fields and classes of the same name.
+	private FieldDecl staticField(Reference ref) {
+		ClassDecl cd;
+		String name;
+		if (ref instanceof IdRef) {
+			name = ((IdRef) ref).id.spelling;
+			if (_localSlots.containsKey(name))
+				return null;
+			cd = _class;
+		} else if (ref instanceof QualRef && ((QualRef) ref).ref instanceof IdRef) {
+			String qualifier = ((IdRef) ((QualRef) ref).ref).id.spelling;
+			if (_localSlots.containsKey(qualifier))
+				return null;
+			cd = _classes.get(qualifier);
+			name = ((QualRef) ref).id.spelling;
+		} else {
+			return null;
+		}
+		if (cd == null)
+			return null;
+		for (FieldDecl fd : cd.fieldDeclList) {
+			if (fd.isStatic && fd.name.equals(name))
+				return fd;
+		}
+		return null;
+	}
+
+	// the type of what ref names, which is a local, a static field or an instance field
+	private TypeDenoter typeOf(Reference ref) {
+		if (ref instanceof IdRef) {
+			TypeDenoter type = _localTypes.get(((IdRef) ref).id.spelling);
+			if (type != null)
+				return type;
+		}
+		FieldDecl fd = staticField(ref);
+		if (fd == null && ref instanceof QualRef)
+			fd = instanceField((QualRef) ref);
+		if (fd == null)
+			throw new IRBuildError(ref, "Field access is not supported yet");
+		return fd.type;
+	}
+
+	// the instance field ref names, of the class its qualifier is an object of, or null
+	private FieldDecl instanceField(QualRef ref) {
+		TypeDenoter type = typeOf(ref.ref);
+		if (type.typeKind != TypeKind.CLASS)
+			return null;
+		ClassDecl cd = _classes.get(((ClassType) type).className.spelling);
+		if (cd == null)
+			throw new IRBuildError(ref, "Undeclared class " + ((ClassType) type).className.spelling);
+		for (FieldDecl fd : cd.fieldDeclList) {
+			if (!fd.isStatic && fd.name.equals(ref.id.spelling))
+				return fd;
+		}
+		return null;
+	}
+
+	// the layout of the class named className, which checking should have made sure exists
+	private ClassLayout layout(AST ast, String className) {
+		ClassDecl cd = _classes.get(className);
+		ClassLayout layout = cd == null ? null : _layouts.get(cd);
+		if (layout == null)
+			throw new IRBuildError(ast, "Undeclared class " + className);
+		return layout;
+	}
+
+	private int getField(int object, FieldDecl fd) {
+		ClassLayout layout = layout(fd, fd.classn);
+		int v = emit(layout.isByte(fd) ? Opcode.GETBYTE : Opcode.GETFIELD, object, layout.offset(fd));
+		if (isReference(fd.type))
+			_f.markReference(v);
+		return v;
+	}
+
+	private int getStatic(FieldDecl fd) {
+		int v = emit(Opcode.GETSTATIC, _statics.get(fd), -1);
+		if (isReference(fd.type))
+			_f.markReference(v);
+		return v;
+	}
+
+	@Override
+	public Object visitPackage(Package prog, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitClassDecl(ClassDecl cd, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitFieldDecl(FieldDecl fd, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitMethodDecl(MethodDecl md, Object arg) {
+		startBlock(_f.newBlock());
+		for (Statement s : md.statementList)
+			s.visit(this, null);
+		_current.ret();
+		return null;
+	}
+
+	@Override
+	public Object visitParameterDecl(ParameterDecl pd, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitVarDecl(VarDecl decl, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitBaseType(BaseType type, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitClassType(ClassType type, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitArrayType(ArrayType type, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+		for (Statement s : stmt.sl)
+			s.visit(this, null);
+		return null;
+	}
+
+	@Override
+	public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+		int slot = _f.newSlot(isReference(stmt.varDecl.type));
+		_localSlots.put(stmt.varDecl.name, slot);
+		_localTypes.put(stmt.varDecl.name, stmt.varDecl.type);
+		int v = value(stmt.initExp); // which may end the current block
+		_current.add(Opcode.STORE, -1, v, slot);
+		return null;
+	}
+
+	@Override
+	public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+		FieldDecl fd = staticField(stmt.ref);
+		if (fd != null) {
+			int v = value(stmt.val);
+			_current.add(Opcode.PUTSTATIC, -1, v, _statics.get(fd));
+			return null;
+		}
+		if (stmt.ref instanceof QualRef) {
+			QualRef ref = (QualRef) stmt.ref;
+			int object = (Integer) ref.ref.visit(this, null);
+			fd = instanceField(ref);
+			if (fd == null)
+				throw new IRBuildError(ref, "Field access is not supported yet");
+			ClassLayout layout = layout(ref, fd.classn);
+			int v = value(stmt.val);
+			_current.add(layout.isByte(fd) ? Opcode.PUTBYTE : Opcode.PUTFIELD, layout.offset(fd), object, v);
+			return null;
+		}
+		int slot = localSlot(stmt.ref);
+		int v = value(stmt.val);
+		_current.add(Opcode.STORE, -1, v, slot);
+		return null;
+	}
+
+	@Override
+	public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+		throw new IRBuildError(stmt, "Array assignment is not supported yet");
+	}
+
+	@Override
+	public Object visitCallStmt(CallStmt stmt, Object arg) {
+		_arguments = stmt.argList;
+		stmt.methodRef.visit(this, null);
+		_arguments = null;
+		return null;
+	}
+
+	@Override
+	public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+		if (stmt.returnExpr != null)
+			throw new IRBuildError(stmt, "Return values are not supported yet");
+		_current.ret();
+		startBlock(_f.newBlock()); // whatever follows is unreachable
+		return null;
+	}
+
+	// Ends the current block with a branch on cond. A comparison becomes the branch itself
+	//  rather than a 0 or 1 that is then tested, and ! swaps the targets. && and || only
+	//  reach their right operand when the left one did not decide the outcome.
+	private void branchOn(Expression cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+		if (cond instanceof UnaryExpr && ((UnaryExpr) cond).operator.spelling.equals("!")) {
+			branchOn(((UnaryExpr) cond).expr, ifFalse, ifTrue);
+			return;
+		}
+		if (cond instanceof BinaryExpr) {
+			BinaryExpr b = (BinaryExpr) cond;
+			if (isLogical(b.operator)) {
+				BasicBlock right = _f.newBlock();
+				if (b.operator.spelling.equals("&&"))
+					branchOn(b.left, right, ifFalse);
+				else
+					branchOn(b.left, ifTrue, right);
+				startBlock(right);
+				branchOn(b.right, ifTrue, ifFalse);
+				return;
+			}
+			Opcode op = binaryOp(b.operator);
+			if (op.isComparison()) {
+				int left = value(b.left);
+				int right = value(b.right);
+				_current.branch(op, left, right, ifTrue, ifFalse);
+				return;
+			}
+		}
+		int v = value(cond);
+		_current.branch(v, ifTrue, ifFalse);
+	}
+
+	@Override
+	public Object visitIfStmt(IfStmt stmt, Object arg) {
+		BasicBlock thenBlock = _f.newBlock();
+		BasicBlock join = _f.newBlock();
+		BasicBlock elseBlock = stmt.elseStmt == null ? join : _f.newBlock();
+		branchOn(stmt.cond, thenBlock, elseBlock);
+
+		startBlock(thenBlock);
+		stmt.thenStmt.visit(this, null);
+		_current.jump(join);
+		if (stmt.elseStmt != null) {
+			startBlock(elseBlock);
+			stmt.elseStmt.visit(this, null);
+			_current.jump(join);
+		}
+		startBlock(join);
+		return null;
+	}
+
+	@Override
+	public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+		BasicBlock head = _f.newBlock();
+		BasicBlock body = _f.newBlock();
+		BasicBlock exit = _f.newBlock();
+		_current.jump(head);
+
+		startBlock(head);
+		branchOn(stmt.cond, body, exit);
+		startBlock(body);
+		stmt.body.visit(this, null);
+		_current.jump(head);
+		startBlock(exit);
+		return null;
+	}
+
+	@Override
+	public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+		int v = value(expr.expr);
+		return emit(expr.operator.spelling.equals("-") ? Opcode.NEG : Opcode.NOT, v, -1);
+	}
+
+	private static boolean isLogical(Operator op) {
+		return op.spelling.equals("&&") || op.spelling.equals("||");
+	}
+
+	@Override
+	public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+		if (isLogical(expr.operator)) {
+			// the value is whichever constant the jumping code arrives at
+			int v = _f.newVReg();
+			BasicBlock ifTrue = _f.newBlock();
+			BasicBlock ifFalse = _f.newBlock();
+			BasicBlock join = _f.newBlock();
+			branchOn(expr, ifTrue, ifFalse);
+			startBlock(ifTrue);
+			_current.add(Opcode.CONST, v, 1, -1);
+			_current.jump(join);
+			startBlock(ifFalse);
+			_current.add(Opcode.CONST, v, 0, -1);
+			_current.jump(join);
+			startBlock(join);
+			return v;
+		}
+		int left = value(expr.left);
+		int right = value(expr.right);
+		return emit(binaryOp(expr.operator), left, right);
+	}
+
+	private Opcode binaryOp(Operator op) {
+		switch (op.spelling) {
+			case "==": return Opcode.EQ;
+			case "!=": return Opcode.NE;
+			case ">": return Opcode.GT;
+			case ">=": return Opcode.GE;
+			case "<": return Opcode.LT;
+			case "<=": return Opcode.LE;
+			case "*": return Opcode.MUL;
+			case "/": return Opcode.DIV;
+			case "+": return Opcode.ADD;
+			case "-": return Opcode.SUB;
+		}
+		throw new IRBuildError(op, "Unknown operator " + op.spelling);
+	}
+
+	@Override
+	public Object visitRefExpr(RefExpr expr, Object arg) {
+		return expr.ref.visit(this, null);
+	}
+
+	@Override
+	public Object visitIxExpr(IxExpr expr, Object arg) {
+		throw new IRBuildError(expr, "Array access is not supported yet");
+	}
+
+	@Override
+	public Object visitCallExpr(CallExpr expr, Object arg) {
+		throw new IRBuildError(expr, "Method calls are not supported yet");
+	}
+
+	@Override
+	public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+		return expr.lit.visit(this, null);
+	}
+
+	@Override
+	public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+		ClassLayout layout = layout(expr, expr.classtype.className.spelling);
+		int v = emit(Opcode.NEW, layout.words(), layout.references());
+		_f.markReference(v);
+		return v;
+	}
+
+	@Override
+	public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+		int v = emit(Opcode.NEWARRAY, value(expr.sizeExpr), isReference(expr.eltType) ? 1 : 0);
+		_f.markReference(v);
+		return v;
+	}
+
+	@Override
+	public Object visitThisRef(ThisRef ref, Object arg) {
+		throw new IRBuildError(ref, "this is not supported yet");
+	}
+
+	@Override
+	public Object visitIdRef(IdRef ref, Object arg) {
+		FieldDecl fd = staticField(ref);
+		if (fd != null)
+			return getStatic(fd);
+		int slot = localSlot(ref);
+		int v = emit(Opcode.LOAD, slot, -1);
+		if (_f.isReferenceSlot(slot))
+			_f.markReference(v);
+		return v;
+	}
+
+	@Override
+	public Object visitQRef(QualRef ref, Object arg) {
+		if (ref.id.spelling.equals("println") && _arguments != null) {
+			int v = value(_arguments.get(0));
+			_current.add(Opcode.PRINT, -1, v, -1);
+			return null;
+		}
+		FieldDecl fd = staticField(ref);
+		if (fd != null)
+			return getStatic(fd);
+		int object = (Integer) ref.ref.visit(this, null);
+		fd = instanceField(ref);
+		if (fd == null)
+			throw new IRBuildError(ref, "Field access is not supported yet");
+		return getField(object, fd);
+	}
+
+	@Override
+	public Object visitIdentifier(Identifier id, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitOperator(Operator op, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Object visitIntLiteral(IntLiteral num, Object arg) {
+		return emit(Opcode.CONST, Integer.parseInt(num.spelling), -1);
+	}
+
+	@Override
+	public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+		return emit(Opcode.CONST, bool.spelling.equals("false") ? 0 : 1, -1);
+	}
+
+	@Override
+	public Object visitNullLiteral(NullLiteral nuLL, Object arg) {
+		return emit(Opcode.CONST, -1, -1);
+	}
+}
@@ -0,0 +1,141 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// One method as basic blocks. Values live in virtual registers numbered from 0, locals in
+//  frame slots numbered from 0. blocks is the layout order the code will be emitted in,
+//  and the first block is the entry.
+// Registers and slots holding heap references are marked, the collector's stack maps come
+//  from them.
+public class IRFunction {
+	public final String name;
+	public final List<BasicBlock> blocks = new ArrayList<>();
+	private int _blockCount;
+	private int _vregs;
+	private int _slots;
+	private BitSet _references = new BitSet();
+	private BitSet _referenceSlots = new BitSet();
+	
+	public IRFunction(String name) {
+		this.name = name;
+	}
+	
+	// a block that is not placed yet, see place
+	public BasicBlock newBlock() {
+		return new BasicBlock(_blockCount++);
+	}
+	
+	// appends b to the layout
+	public void place(BasicBlock b) {
+		blocks.add(b);
+	}
+	
+	public int newVReg() {
+		return _vregs++;
+	}
+	
+	public int newSlot(boolean reference) {
+		if (reference)
+			_referenceSlots.set(_slots);
+		return _slots++;
+	}
+	
+	public void markReference(int v) {
+		_references.set(v);
+	}
+	
+	public boolean isReference(int v) {
+		return _references.get(v);
+	}
+	
+	public boolean isReferenceSlot(int s) {
+		return _referenceSlots.get(s);
+	}
+	
+	public int blockCount() {
+		return _blockCount;
+	}
+	
+	public int vregCount() {
+		return _vregs;
+	}
+	
+	public int slotCount() {
+		return _slots;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(name).append(":\n");
+		for (BasicBlock b : blocks) {
+			sb.append("b").append(b.id).append(":\n");
+			for (int i = 0; i < b.size(); ++i) {
+				Opcode op = b.op(i);
+				sb.append('\t');
+				if (op.hasDst)
+					sb.append('v').append(b.dst(i)).append(" = ");
+				sb.append(op.name().toLowerCase());
+				switch (op) {
+				case CONST:
+					sb.append(' ').append(b.a(i));
+					break;
+				case NEW:
+					sb.append(' ').append(b.a(i)).append(", ").append(b.b(i));
+					break;
+				case LOAD:
+					sb.append(" s").append(b.a(i));
+					break;
+				case STORE:
+					sb.append(" s").append(b.b(i)).append(", v").append(b.a(i));
+					break;
+				case GETSTATIC:
+					sb.append(" @").append(b.a(i));
+					break;
+				case PUTSTATIC:
+					sb.append(" @").append(b.b(i)).append(", v").append(b.a(i));
+					break;
+				case PUTFIELD:
+				case PUTBYTE:
+					sb.append(" v").append(b.a(i)).append('+').append(b.dst(i)).append(", v").append(b.b(i));
+					break;
+				case GETFIELD:
+				case GETBYTE:
+					sb.append(" v").append(b.a(i)).append('+').append(b.b(i));
+					break;
+				case MULI:
+				case DIVI:
+				case NEWARRAY:
+					sb.append(" v").append(b.a(i)).append(", ").append(b.b(i));
+					break;
+				default:
+					sb.append(" v").append(b.a(i));
+					if (op.uses == 2)
+						sb.append(", v").append(b.b(i));
+					break;
+				}
+				sb.append('\n');
+			}
+			switch (b.exit) {
+			case JUMP:
+				sb.append("\tjump b").append(b.target.id).append('\n');
+				break;
+			case BRANCH:
+				sb.append("\tbranch ");
+				if (b.compare != null)
+					sb.append(b.compare.name().toLowerCase()).append(' ');
+				sb.append('v').append(b.cond);
+				if (b.compare != null)
+					sb.append(", v").append(b.right);
+				sb.append(", b").append(b.target.id).append(", b").append(b.elseTarget.id).append('\n');
+				break;
+			case RETURN:
+				sb.append("\treturn\n");
+				break;
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,283 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+// Linear scan register allocation (Poletto and Sarkar) over the block layout of an
+//  IRFunction. Instructions are numbered in layout order, each block's exit taking a number
+//  of its own. A virtual register's interval runs from its first to its last mention, widened
+//  to every block boundary it is live across, so values carried around a loop keep their
+//  register for the whole loop.
+// Intervals that end at an instruction are only expired after it, so an instruction's
+//  result does not share a register with its operands. The exception is the left operand
+//  when this is its last use: the result takes over its register, which lets x64's
+//  two-operand forms compute in place. A spilled register stays in its spill slot for its
+//  whole interval.
+public class LinearScan {
+	private IRFunction _f;
+	private int _registers;
+	private int[] _blockStart; // position of the first instruction, by block id
+	private int[] _start;
+	private int[] _end;
+	private int[] _hint; // left operand of the instruction defining each register, or -1
+	private int[] _defined; // position of that instruction
+	private int[] _location; // register index, or -(spill slot + 1)
+	private int[] _global; // index among the registers live across blocks, or -1
+	private int[] _globals; // and back
+	private int _spillSlots;
+
+	public LinearScan(IRFunction f, int registers) {
+		this._f = f;
+		this._registers = registers;
+		number();
+		buildIntervals(liveOut());
+		allocate();
+	}
+
+	// register index of v, or -1 when v is spilled
+	public int registerOf(int v) {
+		return _location[v] >= 0 ? _location[v] : -1;
+	}
+
+	// spill slot of v, numbered from 0 apart from the function's local slots
+	public int spillSlotOf(int v) {
+		return -_location[v] - 1;
+	}
+
+	public int spillSlots() {
+		return _spillSlots;
+	}
+
+	public int blockStart(BasicBlock b) {
+		return _blockStart[b.id];
+	}
+
+	// registers, as a bit per index, holding references that are needed after pos and were
+	//  defined before it, the collector's roots
+	public int referencesLiveAcross(int pos) {
+		int mask = 0;
+		for (int v = 0; v < _location.length; ++v) {
+			if (_start[v] < pos && _end[v] > pos && _location[v] >= 0 && _f.isReference(v))
+				mask |= 1 << _location[v];
+		}
+		return mask;
+	}
+
+	private void number() {
+		_blockStart = new int[_f.blockCount()];
+		int pos = 0;
+		for (BasicBlock b : _f.blocks) {
+			_blockStart[b.id] = pos;
+			pos += b.size() + 1;
+		}
+	}
+
+	private static void successors(BasicBlock b, List<BasicBlock> out) {
+		out.clear();
+		if (b.exit == BasicBlock.Exit.JUMP) {
+			out.add(b.target);
+		} else if (b.exit == BasicBlock.Exit.BRANCH) {
+			out.add(b.target);
+			out.add(b.elseTarget);
+		}
+	}
+
+	// Iterative backward dataflow, indexed by block id. Most registers are used only in the
+	//  block that defines them and are left out, the sets are over the others, renumbered
+	//  from 0 in _global. Returns null when no register crosses a block boundary.
+	private BitSet[] liveOut() {
+		int[] defBlock = new int[_f.vregCount()];
+		for (BasicBlock b : _f.blocks) {
+			for (int i = 0; i < b.size(); ++i) {
+				if (b.op(i).hasDst)
+					defBlock[b.dst(i)] = b.id;
+			}
+		}
+		_global = new int[_f.vregCount()];
+		Arrays.fill(_global, -1);
+		_globals = new int[8];
+		int globals = 0;
+		for (BasicBlock b : _f.blocks) {
+			for (int i = 0; i < b.size(); ++i) {
+				Opcode op = b.op(i);
+				if (op.uses > 0)
+					globals = markGlobal(b.a(i), defBlock, b, globals);
+				if (op.uses > 1)
+					globals = markGlobal(b.b(i), defBlock, b, globals);
+			}
+			if (b.exit == BasicBlock.Exit.BRANCH)
+				globals = markGlobal(b.cond, defBlock, b, globals);
+			if (b.compare != null)
+				globals = markGlobal(b.right, defBlock, b, globals);
+		}
+		if (globals == 0)
+			return null;
+
+		int n = _f.blockCount();
+		BitSet[] use = new BitSet[n];
+		BitSet[] def = new BitSet[n];
+		BitSet[] in = new BitSet[n];
+		BitSet[] out = new BitSet[n];
+		for (BasicBlock b : _f.blocks) {
+			BitSet u = new BitSet(globals);
+			BitSet d = new BitSet(globals);
+			for (int i = 0; i < b.size(); ++i) {
+				Opcode op = b.op(i);
+				if (op.uses > 0)
+					useGlobal(b.a(i), u, d);
+				if (op.uses > 1)
+					useGlobal(b.b(i), u, d);
+				if (op.hasDst && _global[b.dst(i)] >= 0)
+					d.set(_global[b.dst(i)]);
+			}
+			if (b.exit == BasicBlock.Exit.BRANCH)
+				useGlobal(b.cond, u, d);
+			if (b.compare != null)
+				useGlobal(b.right, u, d);
+			use[b.id] = u;
+			def[b.id] = d;
+			in[b.id] = new BitSet(globals);
+			out[b.id] = new BitSet(globals);
+		}
+
+		List<BasicBlock> succ = new ArrayList<>(2);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int k = _f.blocks.size() - 1; k >= 0; --k) {
+				BasicBlock b = _f.blocks.get(k);
+				BitSet o = out[b.id];
+				successors(b, succ);
+				for (BasicBlock s : succ)
+					o.or(in[s.id]);
+				BitSet i = (BitSet) o.clone();
+				i.andNot(def[b.id]);
+				i.or(use[b.id]);
+				if (!i.equals(in[b.id])) {
+					in[b.id] = i;
+					changed = true;
+				}
+			}
+		}
+		return out;
+	}
+
+	private int markGlobal(int v, int[] defBlock, BasicBlock user, int globals) {
+		if (defBlock[v] == user.id || _global[v] >= 0)
+			return globals;
+		if (globals == _globals.length)
+			_globals = Arrays.copyOf(_globals, globals * 2);
+		_globals[globals] = v;
+		_global[v] = globals;
+		return globals + 1;
+	}
+
+	private void useGlobal(int v, BitSet use, BitSet def) {
+		int g = _global[v];
+		if (g >= 0 && !def.get(g))
+			use.set(g);
+	}
+
+	private void extend(int v, int pos) {
+		_start[v] = Math.min(_start[v], pos);
+		_end[v] = Math.max(_end[v], pos);
+	}
+
+	private void buildIntervals(BitSet[] liveOut) {
+		_start = new int[_f.vregCount()];
+		_end = new int[_f.vregCount()];
+		Arrays.fill(_start, Integer.MAX_VALUE);
+		Arrays.fill(_end, -1);
+		_hint = new int[_f.vregCount()];
+		Arrays.fill(_hint, -1);
+		_defined = new int[_f.vregCount()];
+		for (BasicBlock b : _f.blocks) {
+			int pos = _blockStart[b.id];
+			for (int i = 0; i < b.size(); ++i, ++pos) {
+				Opcode op = b.op(i);
+				if (op.uses > 0)
+					extend(b.a(i), pos);
+				if (op.uses > 1)
+					extend(b.b(i), pos);
+				if (op.hasDst) {
+					extend(b.dst(i), pos);
+					if (op.uses > 0)
+						_hint[b.dst(i)] = b.a(i);
+					_defined[b.dst(i)] = pos;
+				}
+			}
+			if (b.exit == BasicBlock.Exit.BRANCH)
+				extend(b.cond, pos);
+			if (b.compare != null)
+				extend(b.right, pos);
+			// live out of the block means live through its exit and, for a loop,
+			//  back to the top of whatever it jumps to
+			if (liveOut == null)
+				continue;
+			BitSet out = liveOut[b.id];
+			for (int g = out.nextSetBit(0); g >= 0; g = out.nextSetBit(g + 1)) {
+				int v = _globals[g];
+				extend(v, pos);
+				if (b.target != null)
+					extend(v, _blockStart[b.target.id]);
+				if (b.elseTarget != null)
+					extend(v, _blockStart[b.elseTarget.id]);
+			}
+		}
+	}
+
+	private void allocate() {
+		int n = _f.vregCount();
+		_location = new int[n];
+		Integer[] order = new Integer[n];
+		int count = 0;
+		for (int v = 0; v < n; ++v) {
+			if (_end[v] >= 0)
+				order[count++] = v;
+		}
+		Arrays.sort(order, 0, count, (x, y) -> Integer.compare(_start[x], _start[y]));
+
+		List<Integer> active = new ArrayList<>(); // by increasing end
+		int free = _registers >= 32 ? -1 : (1 << _registers) - 1;
+		for (int k = 0; k < count; ++k) {
+			int v = order[k];
+			while (!active.isEmpty() && _end[active.get(0)] < _start[v])
+				free |= 1 << _location[active.remove(0)];
+
+			// a value live into a loop before its definition cannot take over anything
+			int h = _hint[v];
+			if (h >= 0 && _defined[v] == _start[v] && _end[h] == _start[v]
+					&& _location[h] >= 0 && active.remove((Integer) h)) {
+				_location[v] = _location[h];
+				insertByEnd(active, v);
+				continue;
+			}
+			if (free != 0) {
+				int r = Integer.numberOfTrailingZeros(free);
+				free &= ~(1 << r);
+				_location[v] = r;
+				insertByEnd(active, v);
+				continue;
+			}
+			// no register left, the interval that reaches furthest goes to memory
+			int last = active.get(active.size() - 1);
+			if (_end[last] > _end[v]) {
+				_location[v] = _location[last];
+				_location[last] = -(_spillSlots++) - 1;
+				active.remove(active.size() - 1);
+				insertByEnd(active, v);
+			} else {
+				_location[v] = -(_spillSlots++) - 1;
+			}
+		}
+	}
+
+	private void insertByEnd(List<Integer> active, int v) {
+		int i = active.size();
+		while (i > 0 && _end[active.get(i - 1)] > _end[v])
+			--i;
+		active.add(i, v);
+	}
+}
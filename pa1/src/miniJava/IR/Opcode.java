@@ -0,0 +1,53 @@
+package miniJava.IR;
+
+// Three-address operations. Every instruction is (op, dst, a, b), and the comment on each
+//  opcode says which of those it reads. dst is always a virtual register when the opcode
+//  has one, a and b are virtual registers only up to uses, the rest are immediates or slots.
+//  An opcode without a result may use dst as an immediate too.
+public enum Opcode {
+	CONST(true, 0),	// dst:= a
+	MOV(true, 1),	// dst:= a
+	LOAD(true, 0),	// dst:= local slot a
+	STORE(false, 1),	// local slot b:= a
+	GETSTATIC(true, 0),	// dst:= the static field at .bss offset a
+	PUTSTATIC(false, 1),	// the static field at .bss offset b:= a
+	GETFIELD(true, 1),	// dst:= the word at offset b of object a, see ClassLayout
+	PUTFIELD(false, 2),	// the word at offset dst of object a:= b
+	GETBYTE(true, 1),	// dst:= the byte at offset b of object a, zero-extended
+	PUTBYTE(false, 2),	// the byte at offset dst of object a:= b
+	
+	ADD(true, 2),	// dst:= a + b
+	SUB(true, 2),
+	MUL(true, 2),
+	DIV(true, 2),
+	
+	EQ(true, 2),	// dst:= a == b ? 1 : 0
+	NE(true, 2),
+	LT(true, 2),
+	LE(true, 2),
+	GT(true, 2),
+	GE(true, 2),
+	
+	NEG(true, 1),	// dst:= -a
+	NOT(true, 1),	// dst:= a ^ 1
+	
+	MULI(true, 1),	// dst:= a * b, see StrengthReduction
+	DIVI(true, 1),	// dst:= a / b, b is never 0
+	
+	NEW(true, 0),	// dst:= a new object of a words, zeroed, the first b of them references
+	NEWARRAY(true, 1),	// dst:= a new array of a elements, zeroed, references when b is 1
+	
+	PRINT(false, 1);	// println(a)
+	
+	public final boolean hasDst;
+	public final int uses; // how many of a, b are virtual registers
+	
+	private Opcode(boolean hasDst, int uses) {
+		this.hasDst = hasDst;
+		this.uses = uses;
+	}
+	
+	public boolean isComparison() {
+		return ordinal() >= EQ.ordinal() && ordinal() <= GE.ordinal();
+	}
+}
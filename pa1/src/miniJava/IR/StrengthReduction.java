@@ -0,0 +1,72 @@
+package miniJava.IR;
+
+// Turns multiplications and divisions by a constant into MULI and DIVI, which carry the
+//  constant as an immediate so the backend can pick shifts, lea or a multiply by the
+//  reciprocal instead of imul and idiv. A CONST left without uses is removed.
+// Only registers with a single definition count as constants. Division by a constant 0 is
+//  left to fault at run time.
+public class StrengthReduction {
+	private int[] _defs;
+	private int[] _uses;
+	private int[] _constant;
+	private boolean[] _fromConst; // some definition is a CONST
+
+	public void reduce(IRFunction f) {
+		count(f);
+		for (BasicBlock b : f.blocks) {
+			for (int i = 0; i < b.size(); ++i) {
+				Opcode op = b.op(i);
+				int l = b.a(i);
+				int r = b.b(i);
+				if (op == Opcode.MUL && isConstant(r)) {
+					b.set(i, Opcode.MULI, b.dst(i), l, _constant[r]);
+					--_uses[r];
+				} else if (op == Opcode.MUL && isConstant(l)) {
+					b.set(i, Opcode.MULI, b.dst(i), r, _constant[l]);
+					--_uses[l];
+				} else if (op == Opcode.DIV && isConstant(r) && _constant[r] != 0) {
+					b.set(i, Opcode.DIVI, b.dst(i), l, _constant[r]);
+					--_uses[r];
+				}
+			}
+		}
+		for (BasicBlock b : f.blocks) {
+			for (int i = b.size() - 1; i >= 0; --i) {
+				if (b.op(i) == Opcode.CONST && _uses[b.dst(i)] == 0)
+					b.remove(i);
+			}
+		}
+	}
+
+	private boolean isConstant(int v) {
+		return _defs[v] == 1 && _fromConst[v];
+	}
+
+	private void count(IRFunction f) {
+		int n = f.vregCount();
+		_defs = new int[n];
+		_uses = new int[n];
+		_constant = new int[n];
+		_fromConst = new boolean[n];
+		for (BasicBlock b : f.blocks) {
+			for (int i = 0; i < b.size(); ++i) {
+				Opcode op = b.op(i);
+				if (op.uses > 0)
+					++_uses[b.a(i)];
+				if (op.uses > 1)
+					++_uses[b.b(i)];
+				if (op.hasDst) {
+					++_defs[b.dst(i)];
+					if (op == Opcode.CONST) {
+						_constant[b.dst(i)] = b.a(i);
+						_fromConst[b.dst(i)] = true;
+					}
+				}
+			}
+			if (b.exit == BasicBlock.Exit.BRANCH)
+				++_uses[b.cond];
+			if (b.compare != null)
+				++_uses[b.right];
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package miniJava;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+// Accumulates wall time, thread CPU time and allocated bytes per compiler phase.
+//  A disabled timer ignores start/stop, so phases can call it unconditionally.
+public class PhaseTimer {
+	private boolean _enabled;
+	private ThreadMXBean _threads = ManagementFactory.getThreadMXBean();
+	private Map<CompilerPhase, long[]> _totals = new EnumMap<>(CompilerPhase.class);
+	private Map<CompilerPhase, long[]> _starts = new EnumMap<>(CompilerPhase.class);
+	
+	private final static int WALL = 0;
+	private final static int CPU = 1;
+	private final static int ALLOC = 2;
+	
+	public PhaseTimer(boolean enabled) {
+		this._enabled = enabled;
+	}
+	
+	public boolean isEnabled() {
+		return _enabled;
+	}
+	
+	public void start(CompilerPhase phase) {
+		if (!_enabled) return;
+		_starts.put(phase, sample());
+	}
+	
+	public void stop(CompilerPhase phase) {
+		if (!_enabled) return;
+		long[] start = _starts.remove(phase);
+		if (start == null) return;
+		
+		long[] end = sample();
+		long[] total = _totals.computeIfAbsent(phase, p -> new long[3]);
+		for (int i = 0; i < total.length; ++i)
+			total[i] += end[i] - start[i];
+	}
+	
+	// Adds the CPU time and allocation of timers that ran in parallel on other threads, while
+	//  the caller waited wallNanos for all of them. Their own wall times overlap, so summing
+	//  them would not show any speedup; the elapsed time is shared among their phases instead,
+	//  in proportion to the CPU time each took.
+	public void addParallel(List<PhaseTimer> others, long wallNanos) {
+		if (!_enabled) return;
+		Map<CompilerPhase, long[]> sums = new EnumMap<>(CompilerPhase.class);
+		for (PhaseTimer other : others) {
+			for (Map.Entry<CompilerPhase, long[]> e : other._totals.entrySet()) {
+				long[] sum = sums.computeIfAbsent(e.getKey(), p -> new long[3]);
+				for (int i = 0; i < sum.length; ++i)
+					sum[i] += e.getValue()[i];
+			}
+		}
+		
+		// by wall time when the JVM cannot measure CPU time
+		int share = CPU;
+		long weights = 0;
+		for (long[] sum : sums.values())
+			weights += sum[CPU];
+		if (weights == 0) {
+			share = WALL;
+			for (long[] sum : sums.values())
+				weights += sum[WALL];
+		}
+		
+		long left = wallNanos;
+		int phasesLeft = sums.size();
+		for (Map.Entry<CompilerPhase, long[]> e : sums.entrySet()) {
+			long[] sum = e.getValue();
+			long wall = --phasesLeft == 0 ? left : weights == 0 ? 0 : (long) ((double) wallNanos * sum[share] / weights);
+			left -= wall;
+			long[] total = _totals.computeIfAbsent(e.getKey(), p -> new long[3]);
+			total[WALL] += wall;
+			total[CPU] += sum[CPU];
+			total[ALLOC] += sum[ALLOC];
+		}
+	}
+	
+	public void report(PrintStream out, boolean json) {
+		if (!_enabled) return;
+		if (json)
+			reportJson(out);
+		else
+			reportTable(out);
+	}
+	
+	private void reportTable(PrintStream out) {
+		long[] sum = new long[3];
+		out.printf("%-16s %12s %12s %14s%n", "phase", "wall ms", "cpu ms", "allocated KB");
+		for (Map.Entry<CompilerPhase, long[]> e : _totals.entrySet()) {
+			long[] t = e.getValue();
+			out.printf("%-16s %12.3f %12.3f %14d%n", e.getKey().displayName, t[WALL] / 1e6, t[CPU] / 1e6, t[ALLOC] / 1024);
+			for (int i = 0; i < sum.length; ++i)
+				sum[i] += t[i];
+		}
+		out.printf("%-16s %12.3f %12.3f %14d%n", "total", sum[WALL] / 1e6, sum[CPU] / 1e6, sum[ALLOC] / 1024);
+	}
+	
+	private void reportJson(PrintStream out) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"phases\":[");
+		boolean first = true;
+		for (Map.Entry<CompilerPhase, long[]> e : _totals.entrySet()) {
+			long[] t = e.getValue();
+			if (!first)
+				sb.append(',');
+			first = false;
+			sb.append("{\"phase\":\"").append(e.getKey().name().toLowerCase()).append('"');
+			sb.append(",\"wallNanos\":").append(t[WALL]);
+			sb.append(",\"cpuNanos\":").append(t[CPU]);
+			sb.append(",\"allocatedBytes\":").append(t[ALLOC]).append('}');
+		}
+		sb.append("]}");
+		out.println(sb);
+	}
+	
+	// cpu time and allocation count as zero when the JVM cannot measure them
+	private long[] sample() {
+		long[] s = new long[3];
+		s[WALL] = System.nanoTime();
+		s[CPU] = _threads.isCurrentThreadCpuTimeSupported() ? _threads.getCurrentThreadCpuTime() : 0;
+		if (_threads instanceof com.sun.management.ThreadMXBean) {
+			long alloc = ((com.sun.management.ThreadMXBean)_threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+			s[ALLOC] = Math.max(alloc, 0);
+		}
+		return s;
+	}
+}
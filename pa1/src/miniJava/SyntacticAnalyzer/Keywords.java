@@ -0,0 +1,66 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.nio.ByteBuffer;
+
+// Perfect hash over the reserved words. Every keyword lands in its own slot
+//  of a 32 entry table using only its first char, last char and length,
+//  so classifying a scanned word is one table lookup and one byte compare.
+public class Keywords {
+	private final static int minLength = 2;
+	private final static int maxLength = 7;
+	
+	private final static byte[][] _spellings = new byte[32][];
+	private final static TokenType[] _types = new TokenType[32];
+	
+	static {
+		add("class", TokenType.CLASS);
+		add("public", TokenType.PUBLIC);
+		add("private", TokenType.PRIVATE);
+		add("static", TokenType.STATIC);
+		add("void", TokenType.VOID);
+		add("return", TokenType.RETURN);
+		add("int", TokenType.INT);
+		add("boolean", TokenType.BOOL);
+		add("this", TokenType.THIS);
+		add("while", TokenType.WHILE);
+		add("if", TokenType.IF);
+		add("else", TokenType.ELSE);
+		add("new", TokenType.NEW);
+		add("null", TokenType.NULL);
+		add("true", TokenType.BOOLVALUE);
+		add("false", TokenType.BOOLVALUE);
+	}
+	
+	private static int hash(int first, int last, int len) {
+		return (first + 4 * last + 3 * len) & 31;
+	}
+	
+	private static void add(String spelling, TokenType type) {
+		int len = spelling.length();
+		int h = hash(spelling.charAt(0), spelling.charAt(len - 1), len);
+		if (_spellings[h] != null)
+			throw new IllegalStateException("Keyword hash collision: " + spelling);
+		
+		byte[] b = new byte[len];
+		for (int i = 0; i < len; ++i)
+			b[i] = (byte)spelling.charAt(i);
+		_spellings[h] = b;
+		_types[h] = type;
+	}
+	
+	// returns null when the word is not reserved
+	public static TokenType lookup(ByteBuffer buf, int start, int len) {
+		if (len < minLength || len > maxLength)
+			return null;
+		
+		int h = hash(buf.get(start), buf.get(start + len - 1), len);
+		byte[] candidate = _spellings[h];
+		if (candidate == null || candidate.length != len)
+			return null;
+		for (int i = 0; i < len; ++i) {
+			if (candidate[i] != buf.get(start + i))
+				return null;
+		}
+		return _types[h];
+	}
+}
@@ -2,15 +2,13 @@ package miniJava.SyntacticAnalyzer;
 
 import miniJava.ErrorReporter;
 import miniJava.AbstractSyntaxTrees.Package;
-import miniJava.CodeGeneration.CodeGenerator;
-import miniJava.ContextualAnalysis.Identification;
-import miniJava.ContextualAnalysis.TypeChecking;
 import miniJava.AbstractSyntaxTrees.*;
 
 public class Parser {
 	private Scanner _scanner;
 	private ErrorReporter _errors;
 	private Token _currentToken;
+	private long _classHash; // FNV-1a over the tokens accepted since the current class began
 	
 	public Parser( Scanner scanner, ErrorReporter errors ) {
 		this._scanner = scanner;
@@ -22,24 +20,17 @@ public class Parser {
 		private static final long serialVersionUID = -6461942006097999362L;
 	}
 	
-	public AST parse() {
+	public Package parse() {
 		try {
 			// The first thing we need to parse is the Program symbol
-			Package programPackage = parseProgram();
-			Identification identification = new Identification(_errors);
-			identification.parse(programPackage);
-			TypeChecking typeChecking = new TypeChecking(_errors);
-			typeChecking.parse(programPackage);
-			CodeGenerator codeGenerator = new CodeGenerator(_errors);
-			codeGenerator.parse(programPackage);
-			return programPackage;
+			return parseProgram();
 		} catch( SyntaxError e ) { 
 			return null;
 		}
 	}
 	
 	// Program ::= (ClassDeclaration)* eot
-	private Package parseProgram() throws SyntaxError {
+	public Package parseProgram() throws SyntaxError {
 		// TODO: Keep parsing class declarations until eot
 		ClassDeclList classes = new ClassDeclList();
 		while (_currentToken != null && _currentToken.getTokenType() != TokenType.EOT) {
@@ -52,6 +43,7 @@ public class Parser {
 	private ClassDecl parseClassDeclaration() throws SyntaxError {
 		// TODO: Take in a "class" token (check by the TokenType)
 		//  What should be done if the first token isn't "class"?
+		_classHash = FNV_OFFSET;
 		accept(TokenType.CLASS);
 		ClassDecl classD = new ClassDecl(_currentToken.getTokenText(), new FieldDeclList(), new MethodDeclList(), null);
 		// TODO: Take in an identifier token
@@ -149,6 +141,7 @@ public class Parser {
 		
 		// TODO: Take in a }
 		accept(TokenType.RCURLY);
+		classD.contentHash = _classHash;
 		return classD;
 	}
 	
@@ -616,6 +609,7 @@ public class Parser {
 	//  Can be useful if you want to error check and accept all-in-one.
 	private void accept(TokenType expectedType) throws SyntaxError {
 		if( _currentToken.getTokenType() == expectedType ) {
+			hashToken(_currentToken);
 			_currentToken = _scanner.scan();
 			return;
 		}
@@ -625,4 +619,17 @@ public class Parser {
 		_errors.reportError("Got token " + _currentToken.getTokenText() + " expected " + expectedType);
 		throw new SyntaxError();
 	}
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	// Positions are left out so that moving a class around does not change its hash
+	private void hashToken(Token token) {
+		long h = (_classHash ^ token.getTokenType().ordinal()) * FNV_PRIME;
+		String text = token.getTokenText();
+		for (int i = 0; i < text.length(); ++i) {
+			h = (h ^ text.charAt(i)) * FNV_PRIME;
+		}
+		_classHash = h;
+	}
 }
@@ -2,31 +2,122 @@ package miniJava.SyntacticAnalyzer;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 
 import miniJava.ErrorReporter;
 
 public class Scanner {
-	private InputStream _in;
+	// the whole source lives in _in, _pos is the index of the next char to read
+	private ByteBuffer _in;
+	private int _pos;
+	private int _limit;
 	private ErrorReporter _errors;
-	private StringBuilder _currentText;
+	private SpellingTable _spellings;
 	private char _currentChar;
+	private int _currentIdx; // buffer index of _currentChar
+	private int _tokenStart; // buffer index of the first char of the token being scanned
+	private int _line = 1;
+	private int _lineStart; // buffer index of the first char on _line
+	private int _tokenLine;
+	private int _tokenCol;
 	private boolean eot = false;
+	private ArrayList<Token> _prefetched = null; // set once prefetch() scanned everything
+	private ArrayList<ErrorReporter> _prefetchedErrors = null; // what scanning each one reported, or null
+	private int _nextPrefetched = 0;
 	
 	private final static char eolUnix = '\n';
 	private final static char eolWindows = '\r';
 	private final static char tab = '\t';
 	
+	// files at least this big are memory-mapped, smaller ones are read in one go
+	private final static long mapThreshold = 64 * 1024;
+	
 	public Scanner( InputStream in, ErrorReporter errors ) {
+		this( readAll(in, errors), errors );
+	}
+	
+	public Scanner( Path file, ErrorReporter errors ) throws IOException {
+		this( load(file), errors );
+	}
+	
+	public Scanner( ByteBuffer in, ErrorReporter errors ) {
 		this._in = in;
+		this._pos = in.position();
+		this._limit = in.limit();
 		this._errors = errors;
-		this._currentText = new StringBuilder();
+		this._spellings = new SpellingTable();
+		this._lineStart = this._pos;
 		
 		if (!eot) {
 			nextChar();
 		}
 	}
 	
+	private static ByteBuffer readAll( InputStream in, ErrorReporter errors ) {
+		try {
+			return ByteBuffer.wrap(in.readAllBytes());
+		} catch( IOException e ) {
+			errors.reportError("Scan Error: I/O Exception!");
+			return ByteBuffer.allocate(0);
+		}
+	}
+	
+	private static ByteBuffer load( Path file ) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < mapThreshold) {
+				return ByteBuffer.wrap(Files.readAllBytes(file));
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+	
+	// Scans the rest of the input now, later scan() calls hand out the stored tokens.
+	//  Lets lexing be timed apart from parsing. The errors found on the way are kept with
+	//  their token and only reported when scan() hands it out, so the parser sees the same
+	//  diagnostics, in the same order, as without prefetching. Stops at the end or the first
+	//  bad token, which the scanner would hand out again and again; after that scan() goes
+	//  on scanning where prefetch left off.
+	public void prefetch() {
+		ErrorReporter errors = _errors;
+		ArrayList<Token> tokens = new ArrayList<>();
+		ArrayList<ErrorReporter> tokenErrors = new ArrayList<>();
+		_errors = new ErrorReporter();
+		Token t;
+		while ((t = scan()) != null) {
+			tokens.add(t);
+			if (_errors.hasErrors()) {
+				tokenErrors.add(_errors);
+				_errors = new ErrorReporter();
+			} else {
+				tokenErrors.add(null);
+			}
+			if (t.getTokenType() == TokenType.EOT || t.getTokenType() == TokenType.ERROR)
+				break;
+		}
+		_errors = errors;
+		_prefetched = tokens;
+		_prefetchedErrors = tokenErrors;
+		_nextPrefetched = 0;
+	}
+	
 	public Token scan() {
+		if (_prefetched != null) {
+			if (_nextPrefetched < _prefetched.size()) {
+				ErrorReporter tokenErrors = _prefetchedErrors.get(_nextPrefetched);
+				if (tokenErrors != null)
+					_errors.addAll(tokenErrors);
+				return _prefetched.get(_nextPrefetched++);
+			}
+			_prefetched = null;
+			_prefetchedErrors = null;
+		}
+		
 		// TODO: This function should check the current char to determine what the token could be.
 		if (eot) {
 			return null;
@@ -41,7 +132,6 @@ public class Scanner {
 		// TODO: Determine what the token is. For example, if it is a number
 		//  keep calling takeIt() until _currentChar is not a number. Then
 		//  create the token via makeToken(TokenType.IntegerLiteral) and return it.
-		_currentText = new StringBuilder();
 		TokenType token = scanToken();
 		return makeToken(token);
 	}
@@ -53,29 +143,30 @@ public class Scanner {
 	}
 	
 	public void skipMultiComment() {
+		// the opening '/' is the last char taken, the '*' is skipped
+		char prev = '/';
 		skipIt();
-		while((_currentChar != '/' || _currentText.charAt(_currentText.length() - 1) != '*' ) && !eot) {
-			takeIt();
+		while((_currentChar != '/' || prev != '*' ) && !eot) {
+			prev = _currentChar;
+			skipIt();
 		}
 		if (eot) {
 			_errors.reportError("Multiline comment doesn't end");
 		}
-		takeIt();
+		skipIt();
 		skipWhitespace();
-
-		_currentText = new StringBuilder();
 	}
 	
 	public void skipSingleComment() {
-		_currentText.deleteCharAt(_currentText.length() - 1);
 		while ((_currentChar != eolUnix && _currentChar != eolWindows) && !eot) {
 			skipIt();
 		}
 		skipWhitespace();
 	}
 	
+	// token text is the span [_tokenStart, _currentIdx) of the buffer, so taking
+	//  a char only has to advance past it
 	private void takeIt() {
-		_currentText.append(_currentChar);
 		nextChar();
 	}
 
@@ -83,32 +174,42 @@ public class Scanner {
 		nextChar();
 	}
 	
+	// marks _currentChar as the first char of the next token
+	private void startToken() {
+		_tokenStart = _currentIdx;
+		_tokenLine = _line;
+		_tokenCol = _currentIdx - _lineStart + 1;
+	}
+	
 	private void nextChar() {
-		try {
-			int c = _in.read();
-			_currentChar = (char)c;
-			
-			// TODO: What happens if c == -1?
-			// TODO: What happens if c is not a regular ASCII character?
-			if (c == -1) {
-				eot = true;
-			}
-			else if (c < 0 || c >= 128) {
-				throw new IOException("Not an ASCII char!");
-			}
-		} catch( IOException e ) {
-			// TODO: Report an error here
+		if (_currentChar == eolUnix && !eot) {
+			_line++;
+			_lineStart = _pos;
+		}
+		
+		if (_pos >= _limit) {
+			_currentIdx = _limit;
+			_currentChar = (char)-1;
+			eot = true;
+			return;
+		}
+		
+		_currentIdx = _pos;
+		int c = _in.get(_pos++) & 0xFF;
+		_currentChar = (char)c;
+		
+		if (c >= 128) {
 			_errors.reportError("Scan Error: I/O Exception!");
 		}
 	}
 	
 	private Token makeToken( TokenType toktype) {
-		// TODO: return a new Token with the appropriate type and text
-		//  contained in 
-		return new Token(toktype, _currentText.toString());
+		String text = _spellings.intern(_in, _tokenStart, _currentIdx - _tokenStart);
+		return new Token(toktype, text, _tokenLine, _tokenCol);
 	}
 	
 	public TokenType scanToken() {
+		startToken();
 		
 		if (eot) 
 			return(TokenType.EOT); 
@@ -235,58 +336,16 @@ public class Scanner {
 				takeIt();
 			}
 			
-			switch (_currentText.toString()) {
-			case "class":
-				return(TokenType.CLASS);
-			case "public":
-				return(TokenType.PUBLIC);
-				
-			case "private": 
-				return(TokenType.PRIVATE);
-				
-			case "static":
-				return(TokenType.STATIC);
-				
-			case "void":
-				return(TokenType.VOID);
-
-			case "return":
-				return(TokenType.RETURN);
-				
-			case "int":
-				return(TokenType.INT);
-				
-			case "boolean":
-				return(TokenType.BOOL);
-				
-			case "this":
-				return(TokenType.THIS);
-				
-			case "while":
-				return(TokenType.WHILE);
+			TokenType keyword = Keywords.lookup(_in, _tokenStart, _currentIdx - _tokenStart);
+			if (keyword != null) {
+				return keyword;
+			}
 			
-			case "if":
-				return(TokenType.IF);
-		
-			case "else":
-				return(TokenType.ELSE);
-				
-			case "new":
-				return(TokenType.NEW);
-
-			case "null":
-				return(TokenType.NULL);
-				
-			case "true": case "false":
-				return(TokenType.BOOLVALUE);
-				
-			default:				
-				if (_currentText.length() == 0 || !Character.isLetter(_currentText.charAt(0))) {
-					_errors.reportError("Scan Error: ID is not valid");
-					return(TokenType.ERROR);
-				}
-				return(TokenType.ID);
+			if (_currentIdx == _tokenStart || !Character.isLetter((char)_in.get(_tokenStart))) {
+				_errors.reportError("Scan Error: ID is not valid");
+				return(TokenType.ERROR);
 			}
+			return(TokenType.ID);
 		}		
 	}
 	
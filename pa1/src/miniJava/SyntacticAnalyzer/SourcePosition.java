@@ -9,6 +9,14 @@ public class SourcePosition {
         this.col = col;
     }
 
+    public int getLine() {
+        return line;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
     public String toString() {
         return "Error occurred at line: " + line + " col: " + col;
     }
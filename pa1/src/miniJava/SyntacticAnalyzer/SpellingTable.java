@@ -0,0 +1,79 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.nio.ByteBuffer;
+
+// Interns token spellings straight out of the scanner's source buffer.
+//  A spelling that was seen before is found by hashing and comparing the
+//  buffer bytes in place, so only the first occurrence allocates a String.
+public class SpellingTable {
+	private String[] _spellings;
+	private int[] _hashes;
+	private int _count = 0;
+	
+	public SpellingTable() {
+		_spellings = new String[256];
+		_hashes = new int[256];
+	}
+	
+	public String intern(ByteBuffer buf, int start, int len) {
+		int hash = 0;
+		for (int i = start; i < start + len; ++i)
+			hash = 31 * hash + buf.get(i);
+		
+		int mask = _spellings.length - 1;
+		int idx = mix(hash) & mask;
+		while (_spellings[idx] != null) {
+			if (_hashes[idx] == hash && matches(_spellings[idx], buf, start, len))
+				return _spellings[idx];
+			idx = (idx + 1) & mask;
+		}
+		
+		char[] chars = new char[len];
+		for (int i = 0; i < len; ++i)
+			chars[i] = (char)(buf.get(start + i) & 0xFF);
+		String s = new String(chars);
+		_spellings[idx] = s;
+		_hashes[idx] = hash;
+		
+		if (++_count * 2 > _spellings.length)
+			grow();
+		return s;
+	}
+	
+	public int size() {
+		return _count;
+	}
+	
+	private boolean matches(String s, ByteBuffer buf, int start, int len) {
+		if (s.length() != len)
+			return false;
+		for (int i = 0; i < len; ++i) {
+			if (s.charAt(i) != (char)(buf.get(start + i) & 0xFF))
+				return false;
+		}
+		return true;
+	}
+	
+	private void grow() {
+		String[] oldSpellings = _spellings;
+		int[] oldHashes = _hashes;
+		_spellings = new String[oldSpellings.length * 2];
+		_hashes = new int[oldHashes.length * 2];
+		int mask = _spellings.length - 1;
+		
+		for (int i = 0; i < oldSpellings.length; ++i) {
+			if (oldSpellings[i] == null)
+				continue;
+			int idx = mix(oldHashes[i]) & mask;
+			while (_spellings[idx] != null)
+				idx = (idx + 1) & mask;
+			_spellings[idx] = oldSpellings[i];
+			_hashes[idx] = oldHashes[i];
+		}
+	}
+	
+	// spread the low bits, spellings like "x1", "x2" otherwise cluster
+	private static int mix(int h) {
+		return h ^ (h >>> 16) ^ (h >>> 7);
+	}
+}
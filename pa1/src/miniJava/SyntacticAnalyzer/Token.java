@@ -3,14 +3,20 @@ package miniJava.SyntacticAnalyzer;
 public class Token {
 	private TokenType _type;
 	private String _text;
-	private SourcePosition source;
+	private int _line;
+	private int _col;
+	private SourcePosition _posn; // built on first request
 	
 	public Token(TokenType type, String text) {
 		// TODO: Store the token's type and text
+		this(type, text, 0, 0);
+	}
+	
+	public Token(TokenType type, String text, int line, int col) {
 		this._type = type;
 		this._text = text;
-		SourcePosition s = new SourcePosition(1, 1);
-		this.source = s;
+		this._line = line;
+		this._col = col;
 	}
 	
 	public TokenType getTokenType() {
@@ -24,6 +30,11 @@ public class Token {
 	}
 
 	public SourcePosition getTokenPosition() {
-		return null;
+		// tokens made outside of the scanner have no position
+		if (_line == 0)
+			return null;
+		if (_posn == null)
+			_posn = new SourcePosition(_line, _col);
+		return _posn;
 	}
 }